@@ -9,4 +9,76 @@ import org.springframework.boot.context.properties.ConfigurationProperties;
  * See {@link tech.jhipster.config.JHipsterProperties} for a good example.
  */
 @ConfigurationProperties(prefix = "application", ignoreUnknownFields = false)
-public class ApplicationProperties {}
+public class ApplicationProperties {
+
+    private final Bulk bulk = new Bulk();
+
+    private final Pagination pagination = new Pagination();
+
+    public Bulk getBulk() {
+        return bulk;
+    }
+
+    public Pagination getPagination() {
+        return pagination;
+    }
+
+    public static class Bulk {
+
+        /**
+         * Maximum number of entities created by a single bulk request.
+         */
+        private int maxSize = 10_000;
+
+        /**
+         * Number of entities flushed at once, a multiple of {@code hibernate.jdbc.batch_size} so that every insert
+         * statement is sent in full JDBC batches.
+         */
+        private int chunkSize = 500;
+
+        public int getMaxSize() {
+            return maxSize;
+        }
+
+        public void setMaxSize(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        public int getChunkSize() {
+            return chunkSize;
+        }
+
+        public void setChunkSize(int chunkSize) {
+            this.chunkSize = chunkSize;
+        }
+    }
+
+    public static class Pagination {
+
+        /**
+         * Number of entities per page when the request does not give any.
+         */
+        private int defaultSize = 20;
+
+        /**
+         * Maximum number of entities per page.
+         */
+        private int maxSize = 1000;
+
+        public int getDefaultSize() {
+            return defaultSize;
+        }
+
+        public void setDefaultSize(int defaultSize) {
+            this.defaultSize = defaultSize;
+        }
+
+        public int getMaxSize() {
+            return maxSize;
+        }
+
+        public void setMaxSize(int maxSize) {
+            this.maxSize = maxSize;
+        }
+    }
+}
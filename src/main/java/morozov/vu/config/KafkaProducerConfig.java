@@ -1,19 +1,28 @@
 package morozov.vu.config;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import java.util.HashMap;
 import java.util.Map;
-import morozov.vu.domain.ShopOne;
+import morozov.vu.service.ShopOneEventPublisher;
+import org.apache.kafka.clients.admin.AdminClientConfig;
+import org.apache.kafka.clients.admin.NewTopic;
 import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.common.serialization.LongSerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.config.TopicBuilder;
 import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaAdmin;
 import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.core.MicrometerProducerListener;
 import org.springframework.kafka.core.ProducerFactory;
-import org.springframework.kafka.support.serializer.JsonSerializer;
 import org.springframework.stereotype.Service;
 
+/**
+ * Producer of the ShopOne events, whose values are already serialized to JSON in the outbox.
+ */
 @Service
 @Configuration
 public class KafkaProducerConfig {
@@ -21,22 +30,57 @@ public class KafkaProducerConfig {
     @Value("${kafka.bootstrap-servers}")
     private String kafkaServer;
 
+    private final KafkaProperties kafkaProperties;
+
+    public KafkaProducerConfig(KafkaProperties kafkaProperties) {
+        this.kafkaProperties = kafkaProperties;
+    }
+
     @Bean
     public Map<String, Object> producerConfigs() {
         Map<String, Object> props = new HashMap<>();
         props.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, kafkaServer);
         props.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, LongSerializer.class);
-        props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, JsonSerializer.class);
+        props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
+        // Only the outbox relay sends with this producer and nothing waits on it: let it linger to fill large batches
+        props.put(ProducerConfig.LINGER_MS_CONFIG, (int) kafkaProperties.getOutbox().getLinger().toMillis());
+        props.put(ProducerConfig.BATCH_SIZE_CONFIG, (int) kafkaProperties.getOutbox().getProducerBatchSize().toBytes());
+        // Retries must not reorder the events of a partition, nor the relay give up on a send the producer still retries
+        props.put(ProducerConfig.ACKS_CONFIG, "all");
+        props.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, true);
+        props.put(ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION, 5);
+        props.put(ProducerConfig.DELIVERY_TIMEOUT_MS_CONFIG, (int) kafkaProperties.getOutbox().getSendTimeout().toMillis());
         return props;
     }
 
     @Bean
-    public ProducerFactory<Long, ShopOne> producerFactory() {
-        return new DefaultKafkaProducerFactory<>(producerConfigs());
+    public ProducerFactory<Long, String> producerFactory(MeterRegistry meterRegistry) {
+        DefaultKafkaProducerFactory<Long, String> producerFactory = new DefaultKafkaProducerFactory<>(producerConfigs());
+        // Bridge the producer client metrics (record-queue-time, batch-size-avg, request-latency...) to the meter registry
+        producerFactory.addListener(new MicrometerProducerListener<>(meterRegistry));
+        return producerFactory;
+    }
+
+    @Bean
+    public KafkaTemplate<Long, String> kafkaTemplate(ProducerFactory<Long, String> producerFactory) {
+        return new KafkaTemplate<>(producerFactory);
+    }
+
+    /**
+     * Creates the {@link NewTopic} beans missing from the cluster.
+     */
+    @Bean
+    public KafkaAdmin kafkaAdmin() {
+        Map<String, Object> props = new HashMap<>();
+        props.put(AdminClientConfig.BOOTSTRAP_SERVERS_CONFIG, kafkaServer);
+        return new KafkaAdmin(props);
     }
 
+    /**
+     * The ShopOne changes, compacted down to the latest state of each shopOne.
+     */
     @Bean
-    public KafkaTemplate<Long, ShopOne> kafkaTemplate() {
-        return new KafkaTemplate<>(producerFactory());
+    public NewTopic shopOneChangesTopic() {
+        return TopicBuilder.name(ShopOneEventPublisher.CHANGES_TOPIC).compact().build();
     }
 }
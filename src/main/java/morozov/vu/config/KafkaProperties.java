@@ -1,9 +1,12 @@
 package morozov.vu.config;
 
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.Map;
+import morozov.vu.service.KafkaSubscription;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
 
 @Configuration
 @ConfigurationProperties(prefix = "kafka")
@@ -15,6 +18,24 @@ public class KafkaProperties {
 
     private Map<String, String> producer = new HashMap<>();
 
+    private final Publish publish = new Publish();
+
+    private final ProducerPool producerPool = new ProducerPool();
+
+    private Map<String, Topic> topics = new HashMap<>();
+
+    private final Admission admission = new Admission();
+
+    private final Spool spool = new Spool();
+
+    private final Transactions transactions = new Transactions();
+
+    private final Consume consume = new Consume();
+
+    private final Read read = new Read();
+
+    private final Outbox outbox = new Outbox();
+
     public String getBootStrapServers() {
         return bootStrapServers;
     }
@@ -46,4 +67,781 @@ public class KafkaProperties {
     public void setProducer(Map<String, String> producer) {
         this.producer = producer;
     }
+
+    /**
+     * Get the producer properties for a topic: the common producer properties overridden by the topic's own ones.
+     *
+     * @param topic the topic name.
+     * @return the producer properties of the topic.
+     */
+    public Map<String, Object> getProducerProps(String topic) {
+        Map<String, Object> properties = getProducerProps();
+        Topic topicProperties = this.topics.get(topic);
+        if (topicProperties != null) {
+            properties.putAll(topicProperties.getProducer());
+        }
+        return properties;
+    }
+
+    public Map<String, Topic> getTopics() {
+        return topics;
+    }
+
+    public void setTopics(Map<String, Topic> topics) {
+        this.topics = topics;
+    }
+
+    public Publish getPublish() {
+        return publish;
+    }
+
+    public ProducerPool getProducerPool() {
+        return producerPool;
+    }
+
+    public Admission getAdmission() {
+        return admission;
+    }
+
+    public Spool getSpool() {
+        return spool;
+    }
+
+    public Transactions getTransactions() {
+        return transactions;
+    }
+
+    public Consume getConsume() {
+        return consume;
+    }
+
+    public Read getRead() {
+        return read;
+    }
+
+    public Outbox getOutbox() {
+        return outbox;
+    }
+
+    public static class Topic {
+
+        private Map<String, String> producer = new HashMap<>();
+
+        private final Replay replay = new Replay();
+
+        public Map<String, String> getProducer() {
+            return producer;
+        }
+
+        public void setProducer(Map<String, String> producer) {
+            this.producer = producer;
+        }
+
+        public Replay getReplay() {
+            return replay;
+        }
+
+        public static class Replay {
+
+            /**
+             * Number of the most recent records of the topic kept in memory for new subscribers, none by default.
+             */
+            private int maxRecords = 0;
+
+            /**
+             * Memory allocated to the keys, values and headers of those records.
+             */
+            private DataSize maxBytes = DataSize.ofMegabytes(8);
+
+            public int getMaxRecords() {
+                return maxRecords;
+            }
+
+            public void setMaxRecords(int maxRecords) {
+                this.maxRecords = maxRecords;
+            }
+
+            public DataSize getMaxBytes() {
+                return maxBytes;
+            }
+
+            public void setMaxBytes(DataSize maxBytes) {
+                this.maxBytes = maxBytes;
+            }
+        }
+    }
+
+    public static class Publish {
+
+        /**
+         * Maximum time an asynchronous publish waits for the broker acknowledgement.
+         */
+        private Duration timeout = Duration.ofSeconds(30);
+
+        /**
+         * Maximum size of unacknowledged records a streaming ingest keeps in flight before it stops reading the request.
+         */
+        private DataSize streamMaxInFlight = DataSize.ofMegabytes(16);
+
+        public Duration getTimeout() {
+            return timeout;
+        }
+
+        public void setTimeout(Duration timeout) {
+            this.timeout = timeout;
+        }
+
+        public DataSize getStreamMaxInFlight() {
+            return streamMaxInFlight;
+        }
+
+        public void setStreamMaxInFlight(DataSize streamMaxInFlight) {
+            this.streamMaxInFlight = streamMaxInFlight;
+        }
+    }
+
+    public static class ProducerPool {
+
+        /**
+         * Number of producer instances records are striped over.
+         */
+        private int size = 1;
+
+        public int getSize() {
+            return size;
+        }
+
+        public void setSize(int size) {
+            this.size = size;
+        }
+    }
+
+    public static class Admission {
+
+        private boolean enabled = true;
+
+        /**
+         * High-water mark of unacknowledged data per producer, keep it below the producer {@code buffer.memory}.
+         */
+        private DataSize maxInFlight = DataSize.ofMegabytes(24);
+
+        /**
+         * High-water mark of unacknowledged records per producer.
+         */
+        private long maxInFlightRecords = 100_000;
+
+        /**
+         * Delay suggested to rejected clients in the {@code Retry-After} header.
+         */
+        private Duration retryAfter = Duration.ofSeconds(1);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public DataSize getMaxInFlight() {
+            return maxInFlight;
+        }
+
+        public void setMaxInFlight(DataSize maxInFlight) {
+            this.maxInFlight = maxInFlight;
+        }
+
+        public long getMaxInFlightRecords() {
+            return maxInFlightRecords;
+        }
+
+        public void setMaxInFlightRecords(long maxInFlightRecords) {
+            this.maxInFlightRecords = maxInFlightRecords;
+        }
+
+        public Duration getRetryAfter() {
+            return retryAfter;
+        }
+
+        public void setRetryAfter(Duration retryAfter) {
+            this.retryAfter = retryAfter;
+        }
+    }
+
+    public static class Spool {
+
+        private boolean enabled = false;
+
+        private String directory = "target/kafka-spool";
+
+        private DataSize segmentSize = DataSize.ofMegabytes(64);
+
+        private int maxSegments = 16;
+
+        /**
+         * Whether every append is forced to the storage device, instead of relying on the OS to write back mapped pages.
+         */
+        private boolean sync = false;
+
+        private Duration drainInterval = Duration.ofSeconds(1);
+
+        private int drainBatchSize = 500;
+
+        private Duration drainTimeout = Duration.ofSeconds(30);
+
+        /**
+         * Percentage of failed sends in the sliding window above which publishes are diverted to the spool.
+         */
+        private float circuitFailureRateThreshold = 50;
+
+        private int circuitSlidingWindowSize = 20;
+
+        /**
+         * Number of sends in the sliding window from which the circuit may open, small so that an outage is detected
+         * before many publishers are stuck waiting on Kafka.
+         */
+        private int circuitMinimumNumberOfCalls = 5;
+
+        /**
+         * Duration above which a send counts as slow, and is rated like a failure. Capped by the {@code max.block.ms}
+         * of the producers, so that the sends blocked on an unreachable cluster count before they time out.
+         */
+        private Duration circuitSlowCallDuration = Duration.ofSeconds(5);
+
+        /**
+         * How long publishes go to the spool before Kafka is tried again.
+         */
+        private Duration circuitOpenDuration = Duration.ofSeconds(30);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getDirectory() {
+            return directory;
+        }
+
+        public void setDirectory(String directory) {
+            this.directory = directory;
+        }
+
+        public DataSize getSegmentSize() {
+            return segmentSize;
+        }
+
+        public void setSegmentSize(DataSize segmentSize) {
+            this.segmentSize = segmentSize;
+        }
+
+        public int getMaxSegments() {
+            return maxSegments;
+        }
+
+        public void setMaxSegments(int maxSegments) {
+            this.maxSegments = maxSegments;
+        }
+
+        public boolean isSync() {
+            return sync;
+        }
+
+        public void setSync(boolean sync) {
+            this.sync = sync;
+        }
+
+        public Duration getDrainInterval() {
+            return drainInterval;
+        }
+
+        public void setDrainInterval(Duration drainInterval) {
+            this.drainInterval = drainInterval;
+        }
+
+        public int getDrainBatchSize() {
+            return drainBatchSize;
+        }
+
+        public void setDrainBatchSize(int drainBatchSize) {
+            this.drainBatchSize = drainBatchSize;
+        }
+
+        public Duration getDrainTimeout() {
+            return drainTimeout;
+        }
+
+        public void setDrainTimeout(Duration drainTimeout) {
+            this.drainTimeout = drainTimeout;
+        }
+
+        public float getCircuitFailureRateThreshold() {
+            return circuitFailureRateThreshold;
+        }
+
+        public void setCircuitFailureRateThreshold(float circuitFailureRateThreshold) {
+            this.circuitFailureRateThreshold = circuitFailureRateThreshold;
+        }
+
+        public int getCircuitSlidingWindowSize() {
+            return circuitSlidingWindowSize;
+        }
+
+        public void setCircuitSlidingWindowSize(int circuitSlidingWindowSize) {
+            this.circuitSlidingWindowSize = circuitSlidingWindowSize;
+        }
+
+        public int getCircuitMinimumNumberOfCalls() {
+            return circuitMinimumNumberOfCalls;
+        }
+
+        public void setCircuitMinimumNumberOfCalls(int circuitMinimumNumberOfCalls) {
+            this.circuitMinimumNumberOfCalls = circuitMinimumNumberOfCalls;
+        }
+
+        public Duration getCircuitSlowCallDuration() {
+            return circuitSlowCallDuration;
+        }
+
+        public void setCircuitSlowCallDuration(Duration circuitSlowCallDuration) {
+            this.circuitSlowCallDuration = circuitSlowCallDuration;
+        }
+
+        public Duration getCircuitOpenDuration() {
+            return circuitOpenDuration;
+        }
+
+        public void setCircuitOpenDuration(Duration circuitOpenDuration) {
+            this.circuitOpenDuration = circuitOpenDuration;
+        }
+    }
+
+    public static class Transactions {
+
+        /**
+         * Prefix of the {@code transactional.id} of the transactional producers, must be unique per application instance.
+         */
+        private String transactionalIdPrefix = "producer-tx";
+
+        public String getTransactionalIdPrefix() {
+            return transactionalIdPrefix;
+        }
+
+        public void setTransactionalIdPrefix(String transactionalIdPrefix) {
+            this.transactionalIdPrefix = transactionalIdPrefix;
+        }
+    }
+
+    public static class Consume {
+
+        /**
+         * Longest poll timeout, reached while the consumed topics are idle.
+         */
+        private Duration pollTimeout = Duration.ofSeconds(5);
+
+        /**
+         * Shortest poll timeout, used while records are flowing.
+         */
+        private Duration minPollTimeout = Duration.ofMillis(50);
+
+        /**
+         * Size of the records a single poll aims to return, from which {@code max.poll.records} is derived.
+         */
+        private DataSize pollTargetBytes = DataSize.ofMegabytes(1);
+
+        /**
+         * Maximum {@code max.poll.records}, also used until the record sizes of the topics are known.
+         */
+        private int maxPollRecords = 500;
+
+        /**
+         * Interval of the keepalives sent to idle subscribers.
+         */
+        private Duration keepAliveInterval = Duration.ofSeconds(15);
+
+        /**
+         * Maximum number of shared consumers, each running its poll loop on its own thread.
+         */
+        private int maxConsumers = 200;
+
+        /**
+         * Whether poll loops run on virtual threads, when the JDK supports them.
+         */
+        private boolean virtualThreads = false;
+
+        /**
+         * Delay suggested to clients rejected because all consumers are in use.
+         */
+        private Duration retryAfter = Duration.ofSeconds(5);
+
+        /**
+         * How long running poll loops and deliveries are given to finish on shutdown.
+         */
+        private Duration shutdownTimeout = Duration.ofSeconds(10);
+
+        /**
+         * Number of threads delivering polled records to the subscribers.
+         */
+        private int dispatchThreads = 2 * Runtime.getRuntime().availableProcessors();
+
+        /**
+         * Maximum number of records waiting to be delivered to a subscriber. Once reached, the overflow policy of the
+         * subscriber drops its oldest or newest records, or disconnects it as too slow.
+         */
+        private int subscriberQueueSize = 10_000;
+
+        /**
+         * Maximum size of the records waiting to be delivered to a subscriber, handled as the maximum number of records.
+         */
+        private DataSize subscriberQueueBytes = DataSize.ofMegabytes(16);
+
+        /**
+         * What to do with the records of a subscriber whose queue is full, unless the subscriber asks otherwise.
+         */
+        private KafkaSubscription.OverflowPolicy overflowPolicy = KafkaSubscription.OverflowPolicy.DISCONNECT;
+
+        /**
+         * Maximum time a WebSocket subscriber may take to receive a frame, before it is disconnected as too slow.
+         */
+        private Duration websocketSendTimeLimit = Duration.ofSeconds(10);
+
+        /**
+         * Maximum size of the frames waiting to be sent to a WebSocket subscriber, before it is disconnected.
+         */
+        private DataSize websocketBufferSizeLimit = DataSize.ofMegabytes(4);
+
+        /**
+         * Minimum size of the WebSocket frames compressed for the subscribers asking for it.
+         */
+        private DataSize websocketDeflateThreshold = DataSize.ofKilobytes(1);
+
+        /**
+         * Default maximum number of records packed in a single frame, for subscribers asking for batched frames.
+         */
+        private int frameMaxRecords = 500;
+
+        /**
+         * Default maximum size of the records packed in a single frame.
+         */
+        private DataSize frameMaxBytes = DataSize.ofMegabytes(1);
+
+        /**
+         * Default maximum time records wait for a frame to fill up.
+         */
+        private Duration frameLinger = Duration.ZERO;
+
+        public Duration getPollTimeout() {
+            return pollTimeout;
+        }
+
+        public void setPollTimeout(Duration pollTimeout) {
+            this.pollTimeout = pollTimeout;
+        }
+
+        public Duration getMinPollTimeout() {
+            return minPollTimeout;
+        }
+
+        public void setMinPollTimeout(Duration minPollTimeout) {
+            this.minPollTimeout = minPollTimeout;
+        }
+
+        public DataSize getPollTargetBytes() {
+            return pollTargetBytes;
+        }
+
+        public void setPollTargetBytes(DataSize pollTargetBytes) {
+            this.pollTargetBytes = pollTargetBytes;
+        }
+
+        public int getMaxPollRecords() {
+            return maxPollRecords;
+        }
+
+        public void setMaxPollRecords(int maxPollRecords) {
+            this.maxPollRecords = maxPollRecords;
+        }
+
+        public Duration getKeepAliveInterval() {
+            return keepAliveInterval;
+        }
+
+        public void setKeepAliveInterval(Duration keepAliveInterval) {
+            this.keepAliveInterval = keepAliveInterval;
+        }
+
+        public int getMaxConsumers() {
+            return maxConsumers;
+        }
+
+        public void setMaxConsumers(int maxConsumers) {
+            this.maxConsumers = maxConsumers;
+        }
+
+        public boolean isVirtualThreads() {
+            return virtualThreads;
+        }
+
+        public void setVirtualThreads(boolean virtualThreads) {
+            this.virtualThreads = virtualThreads;
+        }
+
+        public Duration getRetryAfter() {
+            return retryAfter;
+        }
+
+        public void setRetryAfter(Duration retryAfter) {
+            this.retryAfter = retryAfter;
+        }
+
+        public Duration getShutdownTimeout() {
+            return shutdownTimeout;
+        }
+
+        public void setShutdownTimeout(Duration shutdownTimeout) {
+            this.shutdownTimeout = shutdownTimeout;
+        }
+
+        public int getDispatchThreads() {
+            return dispatchThreads;
+        }
+
+        public void setDispatchThreads(int dispatchThreads) {
+            this.dispatchThreads = dispatchThreads;
+        }
+
+        public int getSubscriberQueueSize() {
+            return subscriberQueueSize;
+        }
+
+        public void setSubscriberQueueSize(int subscriberQueueSize) {
+            this.subscriberQueueSize = subscriberQueueSize;
+        }
+
+        public DataSize getSubscriberQueueBytes() {
+            return subscriberQueueBytes;
+        }
+
+        public void setSubscriberQueueBytes(DataSize subscriberQueueBytes) {
+            this.subscriberQueueBytes = subscriberQueueBytes;
+        }
+
+        public KafkaSubscription.OverflowPolicy getOverflowPolicy() {
+            return overflowPolicy;
+        }
+
+        public void setOverflowPolicy(KafkaSubscription.OverflowPolicy overflowPolicy) {
+            this.overflowPolicy = overflowPolicy;
+        }
+
+        public Duration getWebsocketSendTimeLimit() {
+            return websocketSendTimeLimit;
+        }
+
+        public void setWebsocketSendTimeLimit(Duration websocketSendTimeLimit) {
+            this.websocketSendTimeLimit = websocketSendTimeLimit;
+        }
+
+        public DataSize getWebsocketBufferSizeLimit() {
+            return websocketBufferSizeLimit;
+        }
+
+        public void setWebsocketBufferSizeLimit(DataSize websocketBufferSizeLimit) {
+            this.websocketBufferSizeLimit = websocketBufferSizeLimit;
+        }
+
+        public DataSize getWebsocketDeflateThreshold() {
+            return websocketDeflateThreshold;
+        }
+
+        public void setWebsocketDeflateThreshold(DataSize websocketDeflateThreshold) {
+            this.websocketDeflateThreshold = websocketDeflateThreshold;
+        }
+
+        public int getFrameMaxRecords() {
+            return frameMaxRecords;
+        }
+
+        public void setFrameMaxRecords(int frameMaxRecords) {
+            this.frameMaxRecords = frameMaxRecords;
+        }
+
+        public DataSize getFrameMaxBytes() {
+            return frameMaxBytes;
+        }
+
+        public void setFrameMaxBytes(DataSize frameMaxBytes) {
+            this.frameMaxBytes = frameMaxBytes;
+        }
+
+        public Duration getFrameLinger() {
+            return frameLinger;
+        }
+
+        public void setFrameLinger(Duration frameLinger) {
+            this.frameLinger = frameLinger;
+        }
+    }
+
+    public static class Read {
+
+        /**
+         * Number of consumers reading pages, kept open between reads.
+         */
+        private int poolSize = 4;
+
+        /**
+         * How long a read waits for a consumer of the pool.
+         */
+        private Duration borrowTimeout = Duration.ofSeconds(1);
+
+        /**
+         * Delay suggested to clients rejected because all the consumers of the pool are in use.
+         */
+        private Duration retryAfter = Duration.ofSeconds(1);
+
+        /**
+         * Maximum time spent reading a page, a shorter page is returned past it.
+         */
+        private Duration timeout = Duration.ofSeconds(10);
+
+        /**
+         * Maximum number of records of a page.
+         */
+        private int maxLimit = 1000;
+
+        public int getPoolSize() {
+            return poolSize;
+        }
+
+        public void setPoolSize(int poolSize) {
+            this.poolSize = poolSize;
+        }
+
+        public Duration getBorrowTimeout() {
+            return borrowTimeout;
+        }
+
+        public void setBorrowTimeout(Duration borrowTimeout) {
+            this.borrowTimeout = borrowTimeout;
+        }
+
+        public Duration getRetryAfter() {
+            return retryAfter;
+        }
+
+        public void setRetryAfter(Duration retryAfter) {
+            this.retryAfter = retryAfter;
+        }
+
+        public Duration getTimeout() {
+            return timeout;
+        }
+
+        public void setTimeout(Duration timeout) {
+            this.timeout = timeout;
+        }
+
+        public int getMaxLimit() {
+            return maxLimit;
+        }
+
+        public void setMaxLimit(int maxLimit) {
+            this.maxLimit = maxLimit;
+        }
+    }
+
+    public static class Outbox {
+
+        /**
+         * Whether this instance relays the outbox events to Kafka.
+         */
+        private boolean enabled = true;
+
+        private Duration pollInterval = Duration.ofMillis(200);
+
+        /**
+         * Maximum number of events published per relay transaction.
+         */
+        private int batchSize = 500;
+
+        /**
+         * {@code delivery.timeout.ms} of the ShopOne event producer, the relay waits as long for the acknowledgement of
+         * a batch. Must be at least {@code linger} plus the {@code request.timeout.ms} of 30s.
+         */
+        private Duration sendTimeout = Duration.ofMinutes(2);
+
+        /**
+         * Maximum delay before failed events are sent again, the delay doubles from {@code poll-interval} on each failure.
+         */
+        private Duration maxRetryBackoff = Duration.ofSeconds(30);
+
+        /**
+         * {@code linger.ms} of the ShopOne event producer: only the relay waits on it, so it can afford large batches.
+         */
+        private Duration linger = Duration.ofMillis(100);
+
+        /**
+         * {@code batch.size} of the ShopOne event producer.
+         */
+        private DataSize producerBatchSize = DataSize.ofKilobytes(256);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Duration getPollInterval() {
+            return pollInterval;
+        }
+
+        public void setPollInterval(Duration pollInterval) {
+            this.pollInterval = pollInterval;
+        }
+
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        public void setBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+        }
+
+        public Duration getSendTimeout() {
+            return sendTimeout;
+        }
+
+        public void setSendTimeout(Duration sendTimeout) {
+            this.sendTimeout = sendTimeout;
+        }
+
+        public Duration getMaxRetryBackoff() {
+            return maxRetryBackoff;
+        }
+
+        public void setMaxRetryBackoff(Duration maxRetryBackoff) {
+            this.maxRetryBackoff = maxRetryBackoff;
+        }
+
+        public Duration getLinger() {
+            return linger;
+        }
+
+        public void setLinger(Duration linger) {
+            this.linger = linger;
+        }
+
+        public DataSize getProducerBatchSize() {
+            return producerBatchSize;
+        }
+
+        public void setProducerBatchSize(DataSize producerBatchSize) {
+            this.producerBatchSize = producerBatchSize;
+        }
+    }
 }
@@ -0,0 +1,26 @@
+package morozov.vu.config;
+
+import morozov.vu.web.websocket.KafkaConsumeWebSocketHandler;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.socket.config.annotation.EnableWebSocket;
+import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
+
+/**
+ * WebSocket endpoints, under {@code /api} so that their handshakes are authenticated as the REST requests.
+ */
+@Configuration
+@EnableWebSocket
+public class WebSocketConfiguration implements WebSocketConfigurer {
+
+    private final KafkaConsumeWebSocketHandler kafkaConsumeWebSocketHandler;
+
+    public WebSocketConfiguration(KafkaConsumeWebSocketHandler kafkaConsumeWebSocketHandler) {
+        this.kafkaConsumeWebSocketHandler = kafkaConsumeWebSocketHandler;
+    }
+
+    @Override
+    public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
+        registry.addHandler(kafkaConsumeWebSocketHandler, "/api/producer-kafka/ws/consume");
+    }
+}
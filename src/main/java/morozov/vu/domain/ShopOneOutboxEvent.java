@@ -0,0 +1,155 @@
+package morozov.vu.domain;
+
+import java.io.Serializable;
+import java.time.Instant;
+import javax.persistence.*;
+import org.hibernate.annotations.Type;
+
+/**
+ * A ShopOne event waiting in the outbox to be relayed to Kafka.
+ * <p>
+ * Events are written in the transaction of the change they describe, so that they are published if and only if the
+ * change is committed.
+ */
+@Entity
+@Table(name = "shop_one_outbox")
+public class ShopOneOutboxEvent implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "sequenceGenerator")
+    @SequenceGenerator(name = "sequenceGenerator")
+    @Column(name = "id")
+    private Long id;
+
+    @Column(name = "topic", nullable = false)
+    private String topic;
+
+    @Column(name = "record_key")
+    private Long recordKey;
+
+    /**
+     * The JSON value of the record, {@code null} for a tombstone.
+     */
+    @Lob
+    @Type(type = "org.hibernate.type.TextType")
+    @Column(name = "payload")
+    private String payload;
+
+    @Column(name = "created_date", nullable = false)
+    private Instant createdDate;
+
+    /**
+     * The end of the lease of the relay sending the event, {@code null} while no relay is.
+     */
+    @Column(name = "claimed_until")
+    private Instant claimedUntil;
+
+    public Long getId() {
+        return this.id;
+    }
+
+    public ShopOneOutboxEvent id(Long id) {
+        this.setId(id);
+        return this;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getTopic() {
+        return this.topic;
+    }
+
+    public ShopOneOutboxEvent topic(String topic) {
+        this.setTopic(topic);
+        return this;
+    }
+
+    public void setTopic(String topic) {
+        this.topic = topic;
+    }
+
+    public Long getRecordKey() {
+        return this.recordKey;
+    }
+
+    public ShopOneOutboxEvent recordKey(Long recordKey) {
+        this.setRecordKey(recordKey);
+        return this;
+    }
+
+    public void setRecordKey(Long recordKey) {
+        this.recordKey = recordKey;
+    }
+
+    public String getPayload() {
+        return this.payload;
+    }
+
+    public ShopOneOutboxEvent payload(String payload) {
+        this.setPayload(payload);
+        return this;
+    }
+
+    public void setPayload(String payload) {
+        this.payload = payload;
+    }
+
+    public Instant getCreatedDate() {
+        return this.createdDate;
+    }
+
+    public ShopOneOutboxEvent createdDate(Instant createdDate) {
+        this.setCreatedDate(createdDate);
+        return this;
+    }
+
+    public void setCreatedDate(Instant createdDate) {
+        this.createdDate = createdDate;
+    }
+
+    public Instant getClaimedUntil() {
+        return this.claimedUntil;
+    }
+
+    public ShopOneOutboxEvent claimedUntil(Instant claimedUntil) {
+        this.setClaimedUntil(claimedUntil);
+        return this;
+    }
+
+    public void setClaimedUntil(Instant claimedUntil) {
+        this.claimedUntil = claimedUntil;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ShopOneOutboxEvent)) {
+            return false;
+        }
+        return id != null && id.equals(((ShopOneOutboxEvent) o).id);
+    }
+
+    @Override
+    public int hashCode() {
+        // see https://vladmihalcea.com/how-to-implement-equals-and-hashcode-using-the-jpa-entity-identifier/
+        return getClass().hashCode();
+    }
+
+    // prettier-ignore
+    @Override
+    public String toString() {
+        return "ShopOneOutboxEvent{" +
+            "id=" + getId() +
+            ", topic='" + getTopic() + "'" +
+            ", recordKey=" + getRecordKey() +
+            ", createdDate='" + getCreatedDate() + "'" +
+            ", claimedUntil='" + getClaimedUntil() + "'" +
+            "}";
+    }
+}
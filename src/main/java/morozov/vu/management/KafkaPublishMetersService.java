@@ -0,0 +1,71 @@
+package morozov.vu.management;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.kafka.KafkaClientMetrics;
+import java.util.concurrent.TimeUnit;
+import org.apache.kafka.clients.producer.Producer;
+import org.springframework.stereotype.Service;
+
+/**
+ * Measures the publish latency per topic:
+ * <ul>
+ *     <li>{@code kafka.publish.serialize}: time spent in {@code send()}, i.e. serializing, partitioning and appending
+ *     the record to the producer accumulator;</li>
+ *     <li>{@code kafka.publish.ack}: end-to-end time from calling {@code send()} to the broker acknowledgement, which
+ *     includes the serialize time, then the wait in the accumulator plus the produce request.</li>
+ * </ul>
+ * The two overlap, the time after {@code send()} returned is their difference. How it splits between accumulator and
+ * broker is given by the Kafka client's own metrics ({@code record-queue-time}, {@code request-latency}, ...), bridged
+ * with {@link #bindClientMetrics}.
+ */
+@Service
+public class KafkaPublishMetersService {
+
+    public static final String SERIALIZE_METER_NAME = "kafka.publish.serialize";
+    public static final String SERIALIZE_METER_DESCRIPTION = "Time spent serializing and enqueuing records in the producer.";
+    public static final String ACK_METER_NAME = "kafka.publish.ack";
+    public static final String ACK_METER_DESCRIPTION = "Time from sending records to their broker acknowledgement, serialization included.";
+    public static final String TOPIC_DIMENSION = "topic";
+    public static final String OUTCOME_DIMENSION = "outcome";
+    public static final String PROFILE_DIMENSION = "profile";
+
+    private final MeterRegistry meterRegistry;
+
+    public KafkaPublishMetersService(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    public void recordSerialize(String topic, long nanos) {
+        Timer
+            .builder(SERIALIZE_METER_NAME)
+            .description(SERIALIZE_METER_DESCRIPTION)
+            .tag(TOPIC_DIMENSION, topic)
+            .register(meterRegistry)
+            .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordAck(String topic, long nanos, Throwable exception) {
+        Timer
+            .builder(ACK_METER_NAME)
+            .description(ACK_METER_DESCRIPTION)
+            .tag(TOPIC_DIMENSION, topic)
+            .tag(OUTCOME_DIMENSION, exception == null ? "success" : "failure")
+            .register(meterRegistry)
+            .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Expose the metrics of a producer in the meter registry until the returned binder is closed.
+     *
+     * @param producer the producer.
+     * @param profile the producer profile, added as a tag.
+     * @return the binder to close with the producer.
+     */
+    public KafkaClientMetrics bindClientMetrics(Producer<?, ?> producer, String profile) {
+        KafkaClientMetrics clientMetrics = new KafkaClientMetrics(producer, Tags.of(PROFILE_DIMENSION, profile));
+        clientMetrics.bindTo(meterRegistry);
+        return clientMetrics;
+    }
+}
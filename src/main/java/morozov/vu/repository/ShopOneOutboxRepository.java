@@ -0,0 +1,56 @@
+package morozov.vu.repository;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import javax.persistence.LockModeType;
+import morozov.vu.domain.ShopOneOutboxEvent;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.*;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Spring Data SQL repository for the ShopOneOutboxEvent entity.
+ */
+@Repository
+public interface ShopOneOutboxRepository extends JpaRepository<ShopOneOutboxEvent, Long> {
+    /**
+     * Lock the oldest events, so that concurrent relays claim them one after the other.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select event from ShopOneOutboxEvent event order by event.id")
+    List<ShopOneOutboxEvent> findOldestForUpdate(Pageable pageable);
+
+    /**
+     * Whether a relay is sending events, claimed until after the given instant.
+     */
+    boolean existsByClaimedUntilAfter(Instant now);
+
+    /**
+     * Delete the event of a record key not yet relayed, if any: an event a relay is sending is left to it.
+     */
+    @Modifying(flushAutomatically = true)
+    @Query(
+        "delete from ShopOneOutboxEvent event where event.topic = :topic and event.recordKey = :recordKey" +
+        " and (event.claimedUntil is null or event.claimedUntil < :now)"
+    )
+    int deletePending(@Param("topic") String topic, @Param("recordKey") Long recordKey, @Param("now") Instant now);
+
+    /**
+     * Delete the given events which a later event of the same record key supersedes.
+     */
+    @Modifying
+    @Query(
+        "delete from ShopOneOutboxEvent event where event.id in :ids and exists (select later from ShopOneOutboxEvent later" +
+        " where later.topic = event.topic and later.recordKey = event.recordKey and later.id not in :ids)"
+    )
+    int deleteSuperseded(@Param("ids") Collection<Long> ids);
+
+    /**
+     * Release the claim of the given events, to be sent again by the next relay.
+     */
+    @Modifying
+    @Query("update ShopOneOutboxEvent event set event.claimedUntil = null where event.id in :ids")
+    int release(@Param("ids") Collection<Long> ids);
+}
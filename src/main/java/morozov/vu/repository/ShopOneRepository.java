@@ -1,7 +1,12 @@
 package morozov.vu.repository;
 
+import java.util.List;
+import java.util.Optional;
+import javax.persistence.LockModeType;
 import morozov.vu.domain.ShopOne;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.*;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 /**
@@ -9,4 +14,16 @@ import org.springframework.stereotype.Repository;
  */
 @SuppressWarnings("unused")
 @Repository
-public interface ShopOneRepository extends JpaRepository<ShopOne, Long> {}
+public interface ShopOneRepository extends JpaRepository<ShopOne, Long> {
+    /**
+     * Get the shopOnes following an id, in id order: a range scan of the primary key index, whatever the position.
+     */
+    List<ShopOne> findByIdGreaterThanOrderByIdAsc(Long id, Pageable pageable);
+
+    /**
+     * Lock a shopOne until the end of the transaction, so that the transactions changing it commit one after the other.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select shopOne from ShopOne shopOne where shopOne.id = :id")
+    Optional<ShopOne> findForUpdate(@Param("id") Long id);
+}
@@ -0,0 +1,43 @@
+package morozov.vu.service;
+
+import java.time.Duration;
+
+/**
+ * Poll timeout of a {@link KafkaConsumerFeed}, adapted to the traffic of its topics.
+ * <p>
+ * The timeout is halved after every poll returning records, down to the minimum, so that a feed with flowing data
+ * comes back quickly to its loop, and doubled after every empty poll, up to the maximum, so that an idle feed wakes up
+ * rarely. A poll always returns as soon as records are fetched, whatever its timeout.
+ */
+class AdaptivePollTimeout {
+
+    private final long minNanos;
+
+    private final long maxNanos;
+
+    private long currentNanos;
+
+    AdaptivePollTimeout(Duration min, Duration max) {
+        if (min.isNegative() || min.compareTo(max) > 0) {
+            throw new IllegalArgumentException("Invalid poll timeout range " + min + " to " + max);
+        }
+        this.minNanos = min.toNanos();
+        this.maxNanos = max.toNanos();
+        this.currentNanos = minNanos;
+    }
+
+    Duration get() {
+        return Duration.ofNanos(currentNanos);
+    }
+
+    /**
+     * Adapt the timeout of the next poll to the number of records of the last one.
+     */
+    void onPoll(int records) {
+        if (records > 0) {
+            currentNanos = Math.max(minNanos, currentNanos / 2);
+        } else {
+            currentNanos = Math.min(maxNanos, Math.max(1, currentNanos) * 2);
+        }
+    }
+}
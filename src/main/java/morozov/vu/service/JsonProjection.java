@@ -0,0 +1,117 @@
+package morozov.vu.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonPointer;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonStreamContext;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Extracts some fields, given as JSON pointers, from JSON documents.
+ * <p>
+ * Documents are read as a token stream: subtrees that cannot contain a requested field are skipped without being
+ * materialized, and reading stops as soon as every field is found. The projection is an object with a member per
+ * found field, named after its pointer without the leading {@code /}, e.g. {@code /customer/name} gives
+ * {@code {"customer/name": ...}}.
+ */
+public class JsonProjection {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final List<String> pointers;
+
+    private JsonProjection(List<String> pointers) {
+        this.pointers = pointers;
+    }
+
+    /**
+     * Compile a projection.
+     *
+     * @param expressions the JSON pointers of the fields, e.g. {@code /customer/name}.
+     * @return the projection.
+     * @throws IllegalArgumentException if an expression is not a valid JSON pointer.
+     */
+    public static JsonProjection compile(List<String> expressions) {
+        List<String> pointers = new ArrayList<>(expressions.size());
+        for (String expression : expressions) {
+            JsonPointer pointer = JsonPointer.compile(expression);
+            if (pointer.matches()) {
+                throw new IllegalArgumentException("Projecting the whole document is not a projection");
+            }
+            pointers.add(pointer.toString());
+        }
+        return new JsonProjection(pointers);
+    }
+
+    /**
+     * Project a JSON document.
+     *
+     * @param json the document.
+     * @return the projection, or {@code null} if the document is not valid JSON.
+     */
+    public byte[] project(byte[] json) {
+        if (json == null) {
+            return null;
+        }
+        TokenBuffer[] values = new TokenBuffer[pointers.size()];
+        try (JsonParser parser = JSON_FACTORY.createParser(json)) {
+            int remaining = values.length;
+            JsonToken token = parser.nextToken();
+            while (token != null && remaining > 0) {
+                if (token.isScalarValue() || token.isStructStart()) {
+                    // The context of a structure start is the structure itself, its path is the one of its parent.
+                    JsonStreamContext context = token.isStructStart()
+                        ? parser.getParsingContext().getParent()
+                        : parser.getParsingContext();
+                    String path = context.pathAsPointer().toString();
+                    int index = pointers.indexOf(path);
+                    if (index >= 0 && values[index] == null) {
+                        values[index] = new TokenBuffer(parser);
+                        values[index].copyCurrentStructure(parser);
+                        remaining--;
+                    } else if (token.isStructStart() && !isAncestor(path)) {
+                        parser.skipChildren();
+                    }
+                }
+                token = parser.nextToken();
+            }
+            return write(values);
+        } catch (JsonProcessingException e) {
+            return null;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private boolean isAncestor(String path) {
+        String prefix = path + "/";
+        for (String pointer : pointers) {
+            if (pointer.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private byte[] write(TokenBuffer[] values) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(out)) {
+            generator.writeStartObject();
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] != null) {
+                    generator.writeFieldName(pointers.get(i).substring(1));
+                    values[i].serialize(generator);
+                }
+            }
+            generator.writeEndObject();
+        }
+        return out.toByteArray();
+    }
+}
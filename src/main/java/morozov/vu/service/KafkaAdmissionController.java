@@ -0,0 +1,140 @@
+package morozov.vu.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import morozov.vu.config.KafkaProperties;
+import org.springframework.stereotype.Service;
+
+/**
+ * Tracks the records and bytes each producer has in flight and rejects new publishes above the configured high-water
+ * mark, instead of letting request threads block in {@code KafkaProducer.send} once {@code buffer.memory} is full.
+ */
+@Service
+public class KafkaAdmissionController {
+
+    public static final String IN_FLIGHT_BYTES_METER_NAME = "kafka.producer.admission.in-flight.bytes";
+    public static final String IN_FLIGHT_RECORDS_METER_NAME = "kafka.producer.admission.in-flight.records";
+    public static final String PRODUCER_DIMENSION = "producer";
+
+    private final KafkaProperties.Admission properties;
+
+    private final MeterRegistry meterRegistry;
+
+    private final ConcurrentMap<String, Level> levels = new ConcurrentHashMap<>();
+
+    public KafkaAdmissionController(KafkaProperties kafkaProperties, MeterRegistry meterRegistry) {
+        this.properties = kafkaProperties.getAdmission();
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Admit a publish, or reject it if the producer is above its high-water mark.
+     *
+     * @param producer the name of the producer the records are sent with.
+     * @param records the number of records.
+     * @param bytes the (estimated) size of the records.
+     * @return the permit to release once the records are acknowledged or failed.
+     * @throws KafkaOverloadedException if the publish would exceed the high-water mark.
+     */
+    public Permit acquire(String producer, long records, long bytes) {
+        Level level = levelOf(producer);
+        long inFlightRecords = level.records.addAndGet(records);
+        long inFlightBytes = level.bytes.addAndGet(bytes);
+        if (exceeds(inFlightRecords, inFlightBytes)) {
+            level.release(records, bytes);
+            throw new KafkaOverloadedException(producer, properties.getRetryAfter());
+        }
+        return new Permit(level, records, bytes);
+    }
+
+    /**
+     * Reject immediately if the producer is already above its high-water mark, without reserving anything.
+     *
+     * @param producer the name of the producer.
+     * @throws KafkaOverloadedException if the producer is above the high-water mark.
+     */
+    public void check(String producer) {
+        Level level = levelOf(producer);
+        if (exceeds(level.records.get() + 1, level.bytes.get())) {
+            throw new KafkaOverloadedException(producer, properties.getRetryAfter());
+        }
+    }
+
+    /**
+     * Account for records that are sent regardless of the high-water mark, e.g. by a caller with its own back-pressure.
+     *
+     * @param producer the name of the producer the records are sent with.
+     * @param records the number of records.
+     * @param bytes the (estimated) size of the records.
+     * @return the permit to release once the records are acknowledged or failed.
+     */
+    public Permit track(String producer, long records, long bytes) {
+        Level level = levelOf(producer);
+        level.records.addAndGet(records);
+        level.bytes.addAndGet(bytes);
+        return new Permit(level, records, bytes);
+    }
+
+    private boolean exceeds(long records, long bytes) {
+        return properties.isEnabled() && (records > properties.getMaxInFlightRecords() || bytes > properties.getMaxInFlight().toBytes());
+    }
+
+    private Level levelOf(String producer) {
+        return levels.computeIfAbsent(producer, this::register);
+    }
+
+    private Level register(String producer) {
+        Level level = new Level();
+        Gauge
+            .builder(IN_FLIGHT_BYTES_METER_NAME, level.bytes, AtomicLong::get)
+            .baseUnit("bytes")
+            .description("Size of the records sent and not yet acknowledged by the broker.")
+            .tag(PRODUCER_DIMENSION, producer)
+            .register(meterRegistry);
+        Gauge
+            .builder(IN_FLIGHT_RECORDS_METER_NAME, level.records, AtomicLong::get)
+            .baseUnit("records")
+            .description("Number of records sent and not yet acknowledged by the broker.")
+            .tag(PRODUCER_DIMENSION, producer)
+            .register(meterRegistry);
+        return level;
+    }
+
+    private static class Level {
+
+        private final AtomicLong records = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+
+        private void release(long records, long bytes) {
+            this.records.addAndGet(-records);
+            this.bytes.addAndGet(-bytes);
+        }
+    }
+
+    /**
+     * The share of a producer's in-flight level held by a publish. Releasing it more than once has no effect.
+     */
+    public static class Permit {
+
+        private final Level level;
+        private final long records;
+        private final long bytes;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(Level level, long records, long bytes) {
+            this.level = level;
+            this.records = records;
+            this.bytes = bytes;
+        }
+
+        public void release() {
+            if (released.compareAndSet(false, true)) {
+                level.release(records, bytes);
+            }
+        }
+    }
+}
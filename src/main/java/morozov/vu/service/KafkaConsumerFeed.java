@@ -0,0 +1,181 @@
+package morozov.vu.service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.function.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A single {@link KafkaConsumer} poll loop fanning its records out to any number of {@link KafkaSubscription}s.
+ * <p>
+ * The poll timeout adapts to the traffic, see {@link AdaptivePollTimeout}. Polled records are also kept by the
+ * {@link KafkaReplayBuffer}, before being offered to the subscriptions.
+ */
+class KafkaConsumerFeed implements Runnable {
+
+    private final Logger log = LoggerFactory.getLogger(KafkaConsumerFeed.class);
+
+    private final Collection<String> topics;
+
+    private final Map<String, Object> consumerProps;
+
+    private final PartitionOffsets startOffsets;
+
+    private final AdaptivePollTimeout pollTimeout;
+
+    private final KafkaPollStatistics statistics;
+
+    private final KafkaReplayBuffer replayBuffer;
+
+    private final Consumer<KafkaConsumerFeed> onTermination;
+
+    private final Set<KafkaSubscription> subscriptions = new CopyOnWriteArraySet<>();
+
+    private volatile boolean closed;
+
+    private volatile KafkaConsumer<byte[], byte[]> consumer;
+
+    KafkaConsumerFeed(
+        Collection<String> topics,
+        Map<String, Object> consumerProps,
+        PartitionOffsets startOffsets,
+        AdaptivePollTimeout pollTimeout,
+        KafkaPollStatistics statistics,
+        KafkaReplayBuffer replayBuffer,
+        Consumer<KafkaConsumerFeed> onTermination
+    ) {
+        this.topics = topics;
+        this.consumerProps = consumerProps;
+        this.startOffsets = startOffsets;
+        this.pollTimeout = pollTimeout;
+        this.statistics = statistics;
+        this.replayBuffer = replayBuffer;
+        this.onTermination = onTermination;
+    }
+
+    void add(KafkaSubscription subscription) {
+        subscriptions.add(subscription);
+    }
+
+    /**
+     * @return {@code true} if the feed has no subscription left.
+     */
+    boolean remove(KafkaSubscription subscription) {
+        subscriptions.remove(subscription);
+        return subscriptions.isEmpty();
+    }
+
+    int getSubscriptionCount() {
+        return subscriptions.size();
+    }
+
+    Collection<KafkaSubscription> getSubscriptions() {
+        return subscriptions;
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    void close() {
+        closed = true;
+        KafkaConsumer<byte[], byte[]> current = consumer;
+        if (current != null) {
+            current.wakeup();
+        }
+    }
+
+    /**
+     * Assign all the partitions of the topics, and move to the start offset of those which have one. The others start
+     * from the group committed offset or according to {@code auto.offset.reset}.
+     */
+    private void seek(KafkaConsumer<byte[], byte[]> kafkaConsumer) {
+        List<TopicPartition> partitions = new ArrayList<>();
+        for (String topic : topics) {
+            List<PartitionInfo> infos = kafkaConsumer.partitionsFor(topic);
+            if (infos != null) {
+                infos.forEach(info -> partitions.add(new TopicPartition(info.topic(), info.partition())));
+            }
+        }
+        kafkaConsumer.assign(partitions);
+        for (TopicPartition partition : partitions) {
+            Long offset = startOffsets.get(partition);
+            if (offset != null) {
+                kafkaConsumer.seek(partition, offset);
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        Throwable failure = null;
+        try (KafkaConsumer<byte[], byte[]> kafkaConsumer = new KafkaConsumer<>(consumerProps)) {
+            consumer = kafkaConsumer;
+            if (closed) {
+                return;
+            }
+            if (startOffsets.isEmpty()) {
+                kafkaConsumer.subscribe(topics);
+            } else {
+                seek(kafkaConsumer);
+            }
+            while (!closed) {
+                Duration timeout = pollTimeout.get();
+                long start = System.nanoTime();
+                ConsumerRecords<byte[], byte[]> records = kafkaConsumer.poll(timeout);
+                long duration = System.nanoTime() - start;
+                List<ConsumerRecord<byte[], byte[]>> polled = new ArrayList<>(records.count());
+                long bytes = 0;
+                for (TopicPartition partition : records.partitions()) {
+                    List<ConsumerRecord<byte[], byte[]>> partitionRecords = records.records(partition);
+                    long partitionBytes = 0;
+                    for (ConsumerRecord<byte[], byte[]> record : partitionRecords) {
+                        polled.add(record);
+                        partitionBytes += KafkaSubscription.sizeOf(record);
+                    }
+                    statistics.recordTopic(partition.topic(), partitionRecords.size(), partitionBytes);
+                    replayBuffer.append(partition.topic(), partitionRecords);
+                    bytes += partitionBytes;
+                }
+                statistics.recordPoll(timeout, duration, polled.size(), bytes);
+                pollTimeout.onPoll(polled.size());
+                if (polled.isEmpty()) {
+                    continue;
+                }
+                for (KafkaSubscription subscription : subscriptions) {
+                    subscription.offer(polled);
+                }
+            }
+        } catch (WakeupException e) {
+            if (!closed) {
+                failure = e;
+            }
+        } catch (Exception e) {
+            log.trace("Consumer of {} failed: {}", topics, e.getMessage(), e);
+            failure = e;
+        } finally {
+            closed = true;
+            onTermination.accept(this);
+        }
+        // Subscriptions are only left on a failure or when the hub is stopped.
+        for (KafkaSubscription subscription : subscriptions) {
+            if (failure != null) {
+                subscription.fail(failure);
+            } else {
+                subscription.complete();
+            }
+        }
+    }
+}
@@ -0,0 +1,375 @@
+package morozov.vu.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.PreDestroy;
+import morozov.vu.config.KafkaProperties;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+/**
+ * Shares Kafka consumers between subscribers.
+ * <p>
+ * Subscribers asking for the same topics with the same consumer properties and start position share a single
+ * {@link KafkaConsumerFeed}, so the number of consumers, poll threads and fetch streams depends on the number of
+ * distinct subscriptions instead of the number of subscribers. A feed is started by its first subscriber and closed
+ * with its last one.
+ * <p>
+ * Records are consumed as raw bytes: the key and value deserializers of the consumer properties are ignored.
+ * <p>
+ * Poll loops run on a bounded executor of {@code kafka.consume.max-consumers} threads, optionally virtual ones. A
+ * subscription needing one more consumer is rejected with {@link KafkaConsumersExhaustedException}.
+ * <p>
+ * Records are delivered on a shared pool of {@code kafka.consume.dispatch-threads}, in blocking sends: a client not
+ * reading its stream holds a dispatch thread until the {@code server.undertow.options.socket.WRITE_TIMEOUT} of its
+ * connection fails the send, which ends its subscription.
+ * <p>
+ * Unless given by the subscriber, the {@code max.poll.records} of a consumer is sized for its polls to return about
+ * {@code kafka.consume.poll-target-bytes}, from the record sizes seen by the earlier consumers of its topics. Idle
+ * subscribers get a keepalive every {@code kafka.consume.keep-alive-interval}.
+ * <p>
+ * Subscribers can ask for the most recent records of topics kept by the {@link KafkaReplayBuffer}, before the live
+ * ones of their feed.
+ * <p>
+ * Each subscription exports its queue, lag, send time and dropped records as meters tagged with its id and topics,
+ * removed once it is cancelled.
+ */
+@Service
+public class KafkaConsumerHub {
+
+    public static final String FEEDS_METER_NAME = "kafka.consume.feeds";
+    public static final String SUBSCRIPTIONS_METER_NAME = "kafka.consume.subscriptions";
+    public static final String SUBSCRIBER_QUEUED_RECORDS_METER_NAME = "kafka.consume.subscriber.queued.records";
+    public static final String SUBSCRIBER_QUEUED_BYTES_METER_NAME = "kafka.consume.subscriber.queued.bytes";
+    public static final String SUBSCRIBER_LAG_METER_NAME = "kafka.consume.subscriber.lag";
+    public static final String SUBSCRIBER_SEND_METER_NAME = "kafka.consume.subscriber.send";
+    public static final String SUBSCRIBER_DROPPED_METER_NAME = "kafka.consume.subscriber.dropped";
+
+    private static final String CONSUMER_THREAD_PREFIX = "kafka-consumer-feed-";
+
+    private final Logger log = LoggerFactory.getLogger(KafkaConsumerHub.class);
+
+    private final KafkaProperties kafkaProperties;
+
+    private final MeterRegistry meterRegistry;
+
+    private final AtomicLong subscriptionIds = new AtomicLong();
+
+    private final Map<FeedKey, KafkaConsumerFeed> feeds = new HashMap<>();
+
+    private final ThreadPoolExecutor consumerExecutor;
+
+    private final ExecutorService dispatchExecutor;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+        new CustomizableThreadFactory("kafka-consumer-scheduler-")
+    );
+
+    private final KafkaPollStatistics pollStatistics;
+
+    private final KafkaReplayBuffer replayBuffer;
+
+    public KafkaConsumerHub(KafkaProperties kafkaProperties, MeterRegistry meterRegistry) {
+        this.kafkaProperties = kafkaProperties;
+        this.meterRegistry = meterRegistry;
+        KafkaProperties.Consume properties = kafkaProperties.getConsume();
+        this.consumerExecutor =
+            new ThreadPoolExecutor(
+                0,
+                properties.getMaxConsumers(),
+                60L,
+                TimeUnit.SECONDS,
+                new SynchronousQueue<>(),
+                consumerThreadFactory(properties.isVirtualThreads())
+            );
+        this.dispatchExecutor =
+            Executors.newFixedThreadPool(properties.getDispatchThreads(), new CustomizableThreadFactory("kafka-consumer-dispatch-"));
+        new ExecutorServiceMetrics(consumerExecutor, "kafka-consumer-feed", Tags.empty()).bindTo(meterRegistry);
+        new ExecutorServiceMetrics(dispatchExecutor, "kafka-consumer-dispatch", Tags.empty()).bindTo(meterRegistry);
+        Gauge
+            .builder(FEEDS_METER_NAME, this, KafkaConsumerHub::getFeedCount)
+            .description("Number of shared consumers.")
+            .register(meterRegistry);
+        Gauge
+            .builder(SUBSCRIPTIONS_METER_NAME, this, KafkaConsumerHub::getSubscriptionCount)
+            .description("Number of subscribers of the shared consumers.")
+            .register(meterRegistry);
+        this.pollStatistics = new KafkaPollStatistics(meterRegistry);
+        this.replayBuffer = new KafkaReplayBuffer(kafkaProperties, meterRegistry);
+        long keepAliveInterval = properties.getKeepAliveInterval().toMillis();
+        scheduler.scheduleAtFixedRate(this::sendKeepAlives, keepAliveInterval, keepAliveInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Subscribe to some topics, joining the feed of any earlier subscriber with the same topics, consumer properties and
+     * start position.
+     *
+     * @param topics the topics.
+     * @param consumerParams the consumer properties overriding {@code kafka.consumer}.
+     * @param startOffsets the offsets of the first records to consume, if empty the consumer subscribes to the topics
+     * and starts from its group committed offsets.
+     * @param subscriber the subscriber records are delivered to.
+     * @param batching the limits of the batches of records delivered to the subscriber at once.
+     * @param filter the filter of the records delivered to the subscriber.
+     * @param replay the number of recent records of the topics to deliver first, from memory, if any.
+     * @param overflowPolicy what to do when the subscriber falls too far behind, {@code null} for
+     * {@code kafka.consume.overflow-policy}.
+     * @return the subscription, to cancel once the subscriber is gone.
+     */
+    public synchronized KafkaSubscription subscribe(
+        Collection<String> topics,
+        Map<String, String> consumerParams,
+        PartitionOffsets startOffsets,
+        KafkaSubscriber subscriber,
+        KafkaSubscription.Batching batching,
+        KafkaRecordFilter filter,
+        int replay,
+        KafkaSubscription.OverflowPolicy overflowPolicy
+    ) {
+        FeedKey key = new FeedKey(topics, consumerParams, startOffsets);
+        KafkaConsumerFeed feed = feeds.get(key);
+        if (feed == null || feed.isClosed()) {
+            feed = createFeed(key);
+        }
+        KafkaProperties.Consume properties = kafkaProperties.getConsume();
+        KafkaSubscription subscription = new KafkaSubscription(
+            subscriber,
+            dispatchExecutor,
+            scheduler,
+            new KafkaSubscription.QueueLimits(
+                properties.getSubscriberQueueSize(),
+                properties.getSubscriberQueueBytes().toBytes(),
+                overflowPolicy != null ? overflowPolicy : properties.getOverflowPolicy()
+            ),
+            batching,
+            filter
+        );
+        subscriber.onSubscribe(subscription);
+        KafkaConsumerFeed joined = feed;
+        List<Meter> meters = registerMeters(subscription, key.topics);
+        subscription.onCancel(() -> {
+            unsubscribe(key, joined, subscription);
+            meters.forEach(meterRegistry::remove);
+        });
+        if (replay > 0) {
+            subscription.hold();
+            feed.add(subscription);
+            // Taken once the subscription is fed, so that no record falls between the replayed and the live ones.
+            int max = Math.min(replay, properties.getSubscriberQueueSize());
+            subscription.replay(replayBuffer.last(topics, max));
+        } else {
+            feed.add(subscription);
+        }
+        return subscription;
+    }
+
+    private List<Meter> registerMeters(KafkaSubscription subscription, Collection<String> topics) {
+        Tags tags = Tags.of("subscription", String.valueOf(subscriptionIds.incrementAndGet()), "topics", String.join(",", topics));
+        List<Meter> meters = new ArrayList<>();
+        meters.add(
+            Gauge
+                .builder(SUBSCRIBER_QUEUED_RECORDS_METER_NAME, subscription, KafkaSubscription::getQueuedRecords)
+                .description("Number of records waiting to be delivered to a subscriber.")
+                .tags(tags)
+                .register(meterRegistry)
+        );
+        meters.add(
+            Gauge
+                .builder(SUBSCRIBER_QUEUED_BYTES_METER_NAME, subscription, KafkaSubscription::getQueuedBytes)
+                .description("Size of the records waiting to be delivered to a subscriber.")
+                .baseUnit("bytes")
+                .tags(tags)
+                .register(meterRegistry)
+        );
+        meters.add(
+            Gauge
+                .builder(SUBSCRIBER_LAG_METER_NAME, subscription, KafkaSubscription::getLagMillis)
+                .description("Age of the oldest record waiting to be delivered to a subscriber.")
+                .baseUnit("milliseconds")
+                .tags(tags)
+                .register(meterRegistry)
+        );
+        meters.add(
+            FunctionTimer
+                .builder(
+                    SUBSCRIBER_SEND_METER_NAME,
+                    subscription,
+                    KafkaSubscription::getSendCount,
+                    KafkaSubscription::getSendNanos,
+                    TimeUnit.NANOSECONDS
+                )
+                .description("Time spent delivering records to a subscriber.")
+                .tags(tags)
+                .register(meterRegistry)
+        );
+        meters.add(
+            FunctionCounter
+                .builder(SUBSCRIBER_DROPPED_METER_NAME, subscription, KafkaSubscription::getDroppedRecords)
+                .description("Records dropped because a subscriber fell too far behind.")
+                .tags(tags)
+                .register(meterRegistry)
+        );
+        return meters;
+    }
+
+    private KafkaConsumerFeed createFeed(FeedKey key) {
+        KafkaProperties.Consume properties = kafkaProperties.getConsume();
+        Map<String, Object> consumerProps = kafkaProperties.getConsumerProps();
+        consumerProps.putAll(key.consumerParams);
+        consumerProps.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class.getName());
+        consumerProps.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class.getName());
+        if (!key.consumerParams.containsKey(ConsumerConfig.MAX_POLL_RECORDS_CONFIG)) {
+            consumerProps.put(
+                ConsumerConfig.MAX_POLL_RECORDS_CONFIG,
+                pollStatistics.maxPollRecords(key.topics, properties.getPollTargetBytes().toBytes(), properties.getMaxPollRecords())
+            );
+        }
+        KafkaConsumerFeed feed = new KafkaConsumerFeed(
+            key.topics,
+            consumerProps,
+            key.startOffsets,
+            new AdaptivePollTimeout(properties.getMinPollTimeout(), properties.getPollTimeout()),
+            pollStatistics,
+            replayBuffer,
+            terminated -> onTermination(key, terminated)
+        );
+        try {
+            consumerExecutor.execute(feed);
+        } catch (RejectedExecutionException e) {
+            throw new KafkaConsumersExhaustedException(properties.getMaxConsumers(), properties.getRetryAfter());
+        }
+        feeds.put(key, feed);
+        return feed;
+    }
+
+    /**
+     * Get the factory of the poll loop threads: virtual threads if requested and supported by the JDK, platform threads
+     * otherwise.
+     */
+    private ThreadFactory consumerThreadFactory(boolean virtualThreads) {
+        if (virtualThreads) {
+            try {
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+                builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, CONSUMER_THREAD_PREFIX, 0L);
+                return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            } catch (ReflectiveOperationException e) {
+                log.warn("Virtual threads are not supported by this JDK, Kafka consumers run on platform threads");
+            }
+        }
+        return new CustomizableThreadFactory(CONSUMER_THREAD_PREFIX);
+    }
+
+    private synchronized void unsubscribe(FeedKey key, KafkaConsumerFeed feed, KafkaSubscription subscription) {
+        if (feed.remove(subscription)) {
+            feeds.remove(key, feed);
+            feed.close();
+        }
+    }
+
+    private synchronized void onTermination(FeedKey key, KafkaConsumerFeed feed) {
+        feeds.remove(key, feed);
+    }
+
+    private void sendKeepAlives() {
+        List<KafkaConsumerFeed> running;
+        synchronized (this) {
+            running = new ArrayList<>(feeds.values());
+        }
+        for (KafkaConsumerFeed feed : running) {
+            feed.getSubscriptions().forEach(KafkaSubscription::keepAlive);
+        }
+    }
+
+    private synchronized int getFeedCount() {
+        return feeds.size();
+    }
+
+    private synchronized int getSubscriptionCount() {
+        return feeds.values().stream().mapToInt(KafkaConsumerFeed::getSubscriptionCount).sum();
+    }
+
+    /**
+     * Close every consumer, completing their subscriptions, and wait for the poll loops and deliveries to finish.
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        List<KafkaConsumerFeed> running;
+        synchronized (this) {
+            running = new ArrayList<>(feeds.values());
+            feeds.clear();
+        }
+        running.forEach(KafkaConsumerFeed::close);
+        long timeout = kafkaProperties.getConsume().getShutdownTimeout().toMillis();
+        consumerExecutor.shutdown();
+        if (!consumerExecutor.awaitTermination(timeout, TimeUnit.MILLISECONDS)) {
+            log.warn("Kafka consumers still running after {} ms, interrupting them", timeout);
+            consumerExecutor.shutdownNow();
+        }
+        scheduler.shutdownNow();
+        dispatchExecutor.shutdown();
+        if (!dispatchExecutor.awaitTermination(timeout, TimeUnit.MILLISECONDS)) {
+            dispatchExecutor.shutdownNow();
+        }
+    }
+
+    private static final class FeedKey {
+
+        private final SortedSet<String> topics;
+        private final SortedMap<String, String> consumerParams;
+        private final PartitionOffsets startOffsets;
+
+        private FeedKey(Collection<String> topics, Map<String, String> consumerParams, PartitionOffsets startOffsets) {
+            this.topics = new TreeSet<>(topics);
+            this.consumerParams = new TreeMap<>(consumerParams);
+            this.startOffsets = new PartitionOffsets(startOffsets.asMap());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof FeedKey)) {
+                return false;
+            }
+            FeedKey other = (FeedKey) o;
+            return (
+                topics.equals(other.topics) && consumerParams.equals(other.consumerParams) && startOffsets.equals(other.startOffsets)
+            );
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(topics, consumerParams, startOffsets);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package morozov.vu.service;
+
+import java.time.Duration;
+
+/**
+ * Thrown when a subscription needs a new consumer while {@code kafka.consume.max-consumers} are already running, or
+ * when a read finds all the consumers of the {@code kafka.read} pool in use.
+ */
+public class KafkaConsumersExhaustedException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Duration retryAfter;
+
+    public KafkaConsumersExhaustedException(int maxConsumers, Duration retryAfter) {
+        super("All " + maxConsumers + " Kafka consumers are in use, retry after " + retryAfter.toMillis() + " ms");
+        this.retryAfter = retryAfter;
+    }
+
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+}
@@ -0,0 +1,29 @@
+package morozov.vu.service;
+
+import java.time.Duration;
+
+/**
+ * Thrown when a publish is rejected because its producer already has too much data in flight.
+ */
+public class KafkaOverloadedException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String producer;
+
+    private final Duration retryAfter;
+
+    public KafkaOverloadedException(String producer, Duration retryAfter) {
+        super("Kafka producer " + producer + " is overloaded, retry after " + retryAfter.toMillis() + " ms");
+        this.producer = producer;
+        this.retryAfter = retryAfter;
+    }
+
+    public String getProducer() {
+        return producer;
+    }
+
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+}
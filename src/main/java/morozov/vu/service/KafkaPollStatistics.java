@@ -0,0 +1,107 @@
+package morozov.vu.service;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Statistics of the polls of the {@link KafkaConsumerFeed}s: exported as meters, and kept as an average record size per
+ * topic to size the {@code max.poll.records} of the next consumers of those topics.
+ */
+class KafkaPollStatistics {
+
+    static final String POLL_METER_NAME = "kafka.consume.poll";
+    static final String POLL_TIMEOUT_METER_NAME = "kafka.consume.poll.timeout";
+    static final String POLL_RECORDS_METER_NAME = "kafka.consume.poll.records";
+    static final String POLL_BYTES_METER_NAME = "kafka.consume.poll.bytes";
+    static final String MAX_POLL_RECORDS_METER_NAME = "kafka.consume.max.poll.records";
+
+    /**
+     * Weight of the last poll in the moving average of the record sizes.
+     */
+    private static final double SIZE_WEIGHT = 0.2;
+
+    private final Map<String, Double> recordSizes = new ConcurrentHashMap<>();
+
+    private final Timer pollTimer;
+
+    private final Timer timeoutTimer;
+
+    private final DistributionSummary recordsSummary;
+
+    private final DistributionSummary bytesSummary;
+
+    private final DistributionSummary maxPollRecordsSummary;
+
+    KafkaPollStatistics(MeterRegistry meterRegistry) {
+        this.pollTimer =
+            Timer.builder(POLL_METER_NAME).description("Duration of the polls of the shared consumers.").register(meterRegistry);
+        this.timeoutTimer =
+            Timer
+                .builder(POLL_TIMEOUT_METER_NAME)
+                .description("Adaptive timeout of the polls of the shared consumers.")
+                .register(meterRegistry);
+        this.recordsSummary =
+            DistributionSummary
+                .builder(POLL_RECORDS_METER_NAME)
+                .description("Number of records returned by a poll.")
+                .baseUnit("records")
+                .register(meterRegistry);
+        this.bytesSummary =
+            DistributionSummary
+                .builder(POLL_BYTES_METER_NAME)
+                .description("Size of the keys and values returned by a poll.")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.maxPollRecordsSummary =
+            DistributionSummary
+                .builder(MAX_POLL_RECORDS_METER_NAME)
+                .description("max.poll.records of the created consumers.")
+                .baseUnit("records")
+                .register(meterRegistry);
+    }
+
+    void recordPoll(Duration timeout, long durationNanos, int records, long bytes) {
+        timeoutTimer.record(timeout);
+        pollTimer.record(Duration.ofNanos(durationNanos));
+        recordsSummary.record(records);
+        bytesSummary.record(bytes);
+    }
+
+    /**
+     * Account for the records of a poll from a topic.
+     */
+    void recordTopic(String topic, int records, long bytes) {
+        if (records > 0) {
+            double size = (double) bytes / records;
+            recordSizes.merge(topic, size, (average, last) -> average + SIZE_WEIGHT * (last - average));
+        }
+    }
+
+    /**
+     * Get the {@code max.poll.records} for which a poll of some topics returns about the target size.
+     *
+     * @param topics the topics.
+     * @param targetBytes the target size of a poll.
+     * @param cap the value used when the record sizes of the topics are still unknown, and the maximum value.
+     * @return the maximum number of records per poll.
+     */
+    int maxPollRecords(Collection<String> topics, long targetBytes, int cap) {
+        double size = 0;
+        for (String topic : topics) {
+            Double average = recordSizes.get(topic);
+            if (average == null) {
+                size = 0;
+                break;
+            }
+            size = Math.max(size, average);
+        }
+        int result = size > 0 ? (int) Math.max(1, Math.min(cap, targetBytes / size)) : cap;
+        maxPollRecordsSummary.record(result);
+        return result;
+    }
+}
@@ -0,0 +1,89 @@
+package morozov.vu.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+
+/**
+ * A fixed set of {@link Producer} instances sharing the load of a single producer configuration.
+ * <p>
+ * Keyed records are striped by key hash, so all records of a key go through the same producer and keep their order.
+ * Unkeyed records are spread round-robin.
+ */
+public class KafkaProducerPool<K, V> implements AutoCloseable {
+
+    private final List<Producer<K, V>> producers;
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    public KafkaProducerPool(Map<String, Object> producerProps, int size) {
+        this(size, index -> new KafkaProducer<>(memberProps(producerProps, index)));
+    }
+
+    /**
+     * @param size the number of members.
+     * @param producerFactory creates the member of the given index.
+     * @throws RuntimeException if a member cannot be created, once the members already created are closed.
+     */
+    KafkaProducerPool(int size, IntFunction<Producer<K, V>> producerFactory) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Producer pool size must be at least 1, was " + size);
+        }
+        List<Producer<K, V>> members = new ArrayList<>(size);
+        try {
+            for (int i = 0; i < size; i++) {
+                members.add(producerFactory.apply(i));
+            }
+        } catch (RuntimeException e) {
+            members.forEach(Producer::close);
+            throw e;
+        }
+        this.producers = Collections.unmodifiableList(members);
+    }
+
+    /**
+     * Get the producer a record with the given key must be sent with.
+     *
+     * @param key the record key, may be {@code null}.
+     * @return the producer for the key.
+     */
+    public Producer<K, V> forKey(K key) {
+        int size = producers.size();
+        if (size == 1) {
+            return producers.get(0);
+        }
+        if (key == null) {
+            return producers.get(Math.floorMod(next.getAndIncrement(), size));
+        }
+        return producers.get(Math.floorMod(key.hashCode(), size));
+    }
+
+    public List<Producer<K, V>> getProducers() {
+        return producers;
+    }
+
+    public int size() {
+        return producers.size();
+    }
+
+    @Override
+    public void close() {
+        producers.forEach(Producer::close);
+    }
+
+    static Map<String, Object> memberProps(Map<String, Object> producerProps, int index) {
+        Map<String, Object> props = new HashMap<>(producerProps);
+        Object clientId = props.get(ProducerConfig.CLIENT_ID_CONFIG);
+        if (clientId != null) {
+            props.put(ProducerConfig.CLIENT_ID_CONFIG, clientId + "-" + index);
+        }
+        return props;
+    }
+}
@@ -0,0 +1,285 @@
+package morozov.vu.service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.PreDestroy;
+import morozov.vu.config.KafkaProperties;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndTimestamp;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+/**
+ * Reads the records of a topic between offset or timestamp bounds, a page at a time.
+ * <p>
+ * Pages are read by consumers taken from a pool of {@code kafka.read.pool-size} consumers without group, which are
+ * assigned the partitions of the topic and moved to the start of the range: a page costs neither a consumer startup
+ * nor a group join. A consumer fetches its assigned partitions from their leaders in parallel.
+ * <p>
+ * The position reached in each partition is returned with the page, to read the next page from. The metadata requests
+ * and the fetches of a page share the {@code kafka.read.timeout}, so that an unreachable cluster holds neither the
+ * consumer nor the caller for the default timeout of the client.
+ */
+@Service
+public class KafkaRangeReader {
+
+    private final Logger log = LoggerFactory.getLogger(KafkaRangeReader.class);
+
+    private final KafkaProperties kafkaProperties;
+
+    private final Queue<KafkaConsumer<byte[], byte[]>> idleConsumers = new ConcurrentLinkedQueue<>();
+
+    private final Semaphore permits;
+
+    private final AtomicInteger consumerCount = new AtomicInteger();
+
+    public KafkaRangeReader(KafkaProperties kafkaProperties) {
+        this.kafkaProperties = kafkaProperties;
+        this.permits = new Semaphore(kafkaProperties.getRead().getPoolSize());
+    }
+
+    /**
+     * Read a page of records of a topic.
+     *
+     * @param topic the topic.
+     * @param fromOffset the offset of the first record of each partition to read, or {@code null}.
+     * @param toOffset the offset following the last record of each partition to read, or {@code null}.
+     * @param from the timestamp of the first records to read, or {@code null}.
+     * @param to the timestamp following the one of the last records to read, or {@code null}.
+     * @param cursor the position of the previous page, if any, overriding the lower bounds.
+     * @param limit the maximum number of records of the page.
+     * @return the page.
+     * @throws KafkaConsumersExhaustedException if no consumer of the pool got available in time.
+     * @throws org.apache.kafka.common.errors.TimeoutException if the metadata of the topic could not be read in time.
+     */
+    public Page read(String topic, Long fromOffset, Long toOffset, Instant from, Instant to, PartitionOffsets cursor, int limit)
+        throws InterruptedException {
+        KafkaProperties.Read properties = kafkaProperties.getRead();
+        if (!permits.tryAcquire(properties.getBorrowTimeout().toMillis(), TimeUnit.MILLISECONDS)) {
+            throw new KafkaConsumersExhaustedException(properties.getPoolSize(), properties.getRetryAfter());
+        }
+        KafkaConsumer<byte[], byte[]> consumer = null;
+        boolean reusable = false;
+        try {
+            consumer = idleConsumers.poll();
+            if (consumer == null) {
+                consumer = createConsumer();
+            }
+            Page page = read(consumer, topic, fromOffset, toOffset, from, to, cursor, limit);
+            consumer.assign(Collections.emptyList());
+            reusable = true;
+            return page;
+        } finally {
+            if (reusable) {
+                idleConsumers.offer(consumer);
+            } else if (consumer != null) {
+                consumer.close(Duration.ZERO);
+            }
+            permits.release();
+        }
+    }
+
+    private Page read(
+        KafkaConsumer<byte[], byte[]> consumer,
+        String topic,
+        Long fromOffset,
+        Long toOffset,
+        Instant from,
+        Instant to,
+        PartitionOffsets cursor,
+        int limit
+    ) {
+        long deadline = System.nanoTime() + kafkaProperties.getRead().getTimeout().toNanos();
+        List<TopicPartition> partitions = new ArrayList<>();
+        List<PartitionInfo> infos = consumer.partitionsFor(topic, remaining(deadline));
+        if (infos != null) {
+            infos.forEach(info -> partitions.add(new TopicPartition(info.topic(), info.partition())));
+        }
+        if (partitions.isEmpty()) {
+            return new Page(Collections.emptyList(), null);
+        }
+        Map<TopicPartition, Long> beginningOffsets = consumer.beginningOffsets(partitions, remaining(deadline));
+        Map<TopicPartition, Long> endOffsets = consumer.endOffsets(partitions, remaining(deadline));
+        Map<TopicPartition, OffsetAndTimestamp> fromOffsets = from != null ? offsetsForTime(consumer, partitions, from, deadline) : null;
+        Map<TopicPartition, OffsetAndTimestamp> toOffsets = to != null ? offsetsForTime(consumer, partitions, to, deadline) : null;
+
+        Map<TopicPartition, Long> starts = new HashMap<>();
+        Map<TopicPartition, Long> stops = new HashMap<>();
+        for (TopicPartition partition : partitions) {
+            long end = endOffsets.get(partition);
+            long start;
+            if (!cursor.isEmpty()) {
+                // Partitions missing from the cursor were read to the end by the previous pages.
+                Long next = cursor.get(partition);
+                start = next != null ? next : end;
+            } else if (fromOffsets != null) {
+                start = offsetOrEnd(fromOffsets.get(partition), end);
+            } else if (fromOffset != null) {
+                start = fromOffset;
+            } else {
+                start = beginningOffsets.get(partition);
+            }
+            long stop = end;
+            if (toOffsets != null) {
+                stop = Math.min(stop, offsetOrEnd(toOffsets.get(partition), end));
+            }
+            if (toOffset != null) {
+                stop = Math.min(stop, toOffset);
+            }
+            start = Math.max(start, beginningOffsets.get(partition));
+            if (start < stop) {
+                starts.put(partition, start);
+                stops.put(partition, stop);
+            }
+        }
+
+        consumer.assign(starts.keySet());
+        starts.forEach(consumer::seek);
+        List<ConsumerRecord<byte[], byte[]>> records = new ArrayList<>();
+        Map<TopicPartition, Long> positions = new HashMap<>(starts);
+        Set<TopicPartition> remaining = new HashSet<>(starts.keySet());
+        boolean full = false;
+        while (!remaining.isEmpty() && !full) {
+            long timeout = deadline - System.nanoTime();
+            if (timeout <= 0) {
+                log.debug("Read of {} timed out with partitions {} left", topic, remaining);
+                break;
+            }
+            ConsumerRecords<byte[], byte[]> polled = consumer.poll(Duration.ofNanos(timeout));
+            for (TopicPartition partition : polled.partitions()) {
+                long stop = stops.get(partition);
+                for (ConsumerRecord<byte[], byte[]> record : polled.records(partition)) {
+                    if (record.offset() >= stop) {
+                        break;
+                    }
+                    if (records.size() >= limit) {
+                        full = true;
+                        break;
+                    }
+                    records.add(record);
+                    positions.put(partition, record.offset() + 1);
+                }
+            }
+            if (!full) {
+                pauseCompleted(consumer, remaining, stops, deadline);
+            }
+        }
+
+        if (remaining.isEmpty()) {
+            return new Page(records, null);
+        }
+        PartitionOffsets next = new PartitionOffsets();
+        remaining.forEach(partition -> next.put(partition, positions.get(partition)));
+        return new Page(records, next);
+    }
+
+    /**
+     * Stop fetching the partitions read up to their upper bound. Their position can go past the last record returned,
+     * e.g. over transaction markers.
+     */
+    private static void pauseCompleted(
+        KafkaConsumer<byte[], byte[]> consumer,
+        Collection<TopicPartition> remaining,
+        Map<TopicPartition, Long> stops,
+        long deadline
+    ) {
+        for (Iterator<TopicPartition> it = remaining.iterator(); it.hasNext();) {
+            TopicPartition partition = it.next();
+            if (consumer.position(partition, remaining(deadline)) >= stops.get(partition)) {
+                it.remove();
+                consumer.pause(Collections.singleton(partition));
+            }
+        }
+    }
+
+    private static Map<TopicPartition, OffsetAndTimestamp> offsetsForTime(
+        KafkaConsumer<byte[], byte[]> consumer,
+        List<TopicPartition> partitions,
+        Instant time,
+        long deadline
+    ) {
+        Map<TopicPartition, Long> timestamps = new HashMap<>();
+        partitions.forEach(partition -> timestamps.put(partition, time.toEpochMilli()));
+        return consumer.offsetsForTimes(timestamps, remaining(deadline));
+    }
+
+    /**
+     * Get the time left before a deadline of {@link System#nanoTime}, at least zero.
+     */
+    private static Duration remaining(long deadline) {
+        return Duration.ofNanos(Math.max(0, deadline - System.nanoTime()));
+    }
+
+    /**
+     * Get the offset found for a timestamp, or the end offset of the partition if it has no record that recent.
+     */
+    private static long offsetOrEnd(OffsetAndTimestamp offset, long end) {
+        return offset != null ? offset.offset() : end;
+    }
+
+    private KafkaConsumer<byte[], byte[]> createConsumer() {
+        Map<String, Object> consumerProps = kafkaProperties.getConsumerProps();
+        consumerProps.remove(ConsumerConfig.GROUP_ID_CONFIG);
+        consumerProps.put(ConsumerConfig.CLIENT_ID_CONFIG, "kafka-range-reader-" + consumerCount.incrementAndGet());
+        consumerProps.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+        consumerProps.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, kafkaProperties.getRead().getMaxLimit());
+        consumerProps.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class.getName());
+        consumerProps.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class.getName());
+        return new KafkaConsumer<>(consumerProps);
+    }
+
+    @PreDestroy
+    public void close() {
+        KafkaConsumer<byte[], byte[]> consumer;
+        while ((consumer = idleConsumers.poll()) != null) {
+            consumer.close(Duration.ZERO);
+        }
+    }
+
+    /**
+     * A page of records.
+     */
+    public static class Page {
+
+        private final List<ConsumerRecord<byte[], byte[]>> records;
+
+        private final PartitionOffsets next;
+
+        Page(List<ConsumerRecord<byte[], byte[]>> records, PartitionOffsets next) {
+            this.records = records;
+            this.next = next;
+        }
+
+        public List<ConsumerRecord<byte[], byte[]>> getRecords() {
+            return records;
+        }
+
+        /**
+         * @return the position to read the next page from, {@code null} once every partition is read to its upper bound.
+         */
+        public PartitionOffsets getNext() {
+            return next;
+        }
+    }
+}
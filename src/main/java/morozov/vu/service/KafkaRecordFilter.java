@@ -0,0 +1,176 @@
+package morozov.vu.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.Header;
+
+/**
+ * A subscription filter on record keys and headers, compiled once and evaluated on every polled record before it is
+ * queued for the subscriber.
+ * <p>
+ * The key prefix and the header values are compared as bytes, only the key regex needs the key to be decoded.
+ * <p>
+ * Filters run on the poll loop shared by the subscribers of a feed, so the cost of the key regex is bounded: its length
+ * is limited to {@value #MAX_KEY_REGEX_LENGTH} characters, and a key it takes longer than
+ * {@value #MATCH_TIME_LIMIT_MICROS} microseconds to match, such as with catastrophic backtracking, is rejected.
+ */
+public class KafkaRecordFilter implements Predicate<ConsumerRecord<byte[], byte[]>> {
+
+    public static final KafkaRecordFilter ACCEPT_ALL = new KafkaRecordFilter(null, null, Map.of());
+
+    public static final int MAX_KEY_REGEX_LENGTH = 256;
+
+    public static final long MATCH_TIME_LIMIT_MICROS = 1000;
+
+    /**
+     * Number of characters read between two checks of the match deadline.
+     */
+    private static final int DEADLINE_CHECK_INTERVAL = 1024;
+
+    private final byte[] keyPrefix;
+
+    private final Pattern keyPattern;
+
+    private final Map<String, byte[]> headers;
+
+    private KafkaRecordFilter(byte[] keyPrefix, Pattern keyPattern, Map<String, byte[]> headers) {
+        this.keyPrefix = keyPrefix;
+        this.keyPattern = keyPattern;
+        this.headers = headers;
+    }
+
+    /**
+     * Compile a filter.
+     *
+     * @param keyPrefix the prefix of the accepted keys, or {@code null}.
+     * @param keyRegex the regular expression the whole accepted keys match, or {@code null}.
+     * @param headers the values the last header of each name must have.
+     * @return the filter.
+     * @throws IllegalArgumentException if the regular expression is invalid or too long.
+     */
+    public static KafkaRecordFilter of(String keyPrefix, String keyRegex, Map<String, String> headers) {
+        if (keyPrefix == null && keyRegex == null && headers.isEmpty()) {
+            return ACCEPT_ALL;
+        }
+        if (keyRegex != null && keyRegex.length() > MAX_KEY_REGEX_LENGTH) {
+            throw new IllegalArgumentException("Key regex longer than " + MAX_KEY_REGEX_LENGTH + " characters");
+        }
+        Map<String, byte[]> headerValues = new LinkedHashMap<>();
+        headers.forEach((name, value) -> headerValues.put(name, value.getBytes(StandardCharsets.UTF_8)));
+        return new KafkaRecordFilter(
+            keyPrefix != null ? keyPrefix.getBytes(StandardCharsets.UTF_8) : null,
+            keyRegex != null ? Pattern.compile(keyRegex) : null,
+            headerValues
+        );
+    }
+
+    /**
+     * Parse header criteria.
+     *
+     * @param headers the criteria, as {@code name:value}, or {@code null}.
+     * @return the value of each header name.
+     * @throws IllegalArgumentException if a criterion is malformed.
+     */
+    public static Map<String, String> parseHeaders(List<String> headers) {
+        Map<String, String> result = new HashMap<>();
+        if (headers != null) {
+            for (String header : headers) {
+                int separator = header.indexOf(':');
+                if (separator <= 0) {
+                    throw new IllegalArgumentException("Invalid header " + header + ", expected name:value");
+                }
+                result.put(header.substring(0, separator), header.substring(separator + 1));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public boolean test(ConsumerRecord<byte[], byte[]> record) {
+        byte[] key = record.key();
+        if (keyPrefix != null && (key == null || key.length < keyPrefix.length || !startsWith(key, keyPrefix))) {
+            return false;
+        }
+        if (keyPattern != null && (key == null || !matchesKeyPattern(new String(key, StandardCharsets.UTF_8)))) {
+            return false;
+        }
+        for (Map.Entry<String, byte[]> expected : headers.entrySet()) {
+            Header header = record.headers().lastHeader(expected.getKey());
+            if (header == null || !Arrays.equals(header.value(), expected.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean startsWith(byte[] bytes, byte[] prefix) {
+        return Arrays.equals(bytes, 0, prefix.length, prefix, 0, prefix.length);
+    }
+
+    private boolean matchesKeyPattern(String key) {
+        long deadline = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(MATCH_TIME_LIMIT_MICROS);
+        try {
+            return keyPattern.matcher(new DeadlineCharSequence(key, deadline)).matches();
+        } catch (MatchTimeoutException e) {
+            return false;
+        }
+    }
+
+    /**
+     * A key that fails the match reading it after a deadline: the regex engine reads the input over and over while it
+     * backtracks, and has no time limit of its own.
+     */
+    private static final class DeadlineCharSequence implements CharSequence {
+
+        private final String value;
+
+        private final long deadline;
+
+        private int reads;
+
+        private DeadlineCharSequence(String value, long deadline) {
+            this.value = value;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (++reads % DEADLINE_CHECK_INTERVAL == 0 && System.nanoTime() - deadline > 0) {
+                throw new MatchTimeoutException();
+            }
+            return value.charAt(index);
+        }
+
+        @Override
+        public int length() {
+            return value.length();
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new DeadlineCharSequence(value.substring(start, end), deadline);
+        }
+
+        @Override
+        public String toString() {
+            return value;
+        }
+    }
+
+    private static final class MatchTimeoutException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        private MatchTimeoutException() {
+            super(null, null, false, false);
+        }
+    }
+}
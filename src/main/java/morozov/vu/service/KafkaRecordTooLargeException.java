@@ -0,0 +1,13 @@
+package morozov.vu.service;
+
+/**
+ * Thrown when a record is too large to be appended to the spool.
+ */
+public class KafkaRecordTooLargeException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public KafkaRecordTooLargeException(String topic, int size, int maxSize) {
+        super("Record of " + size + " bytes for topic " + topic + " exceeds the spool limit of " + maxSize + " bytes");
+    }
+}
@@ -0,0 +1,129 @@
+package morozov.vu.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import morozov.vu.config.KafkaProperties;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+
+/**
+ * The most recent records of the topics configured with a {@code kafka.topics.<topic>.replay.max-records}, fed by the
+ * {@link KafkaConsumerFeed}s, to serve new subscribers the last records of those topics without fetching them again
+ * from the brokers.
+ * <p>
+ * Each topic has its own {@link KafkaReplayRing}, of at most {@code replay.max-records} records and
+ * {@code replay.max-bytes} bytes.
+ */
+class KafkaReplayBuffer {
+
+    static final String REPLAY_METER_NAME = "kafka.consume.replay";
+    static final String REPLAY_BYTES_METER_NAME = "kafka.consume.replay.bytes";
+    static final String REPLAY_RECORDS_METER_NAME = "kafka.consume.replay.records";
+
+    private final Map<String, KafkaReplayRing> rings = new HashMap<>();
+
+    private final Counter hits;
+
+    private final Counter misses;
+
+    KafkaReplayBuffer(KafkaProperties kafkaProperties, MeterRegistry meterRegistry) {
+        kafkaProperties
+            .getTopics()
+            .forEach((topic, properties) -> {
+                KafkaProperties.Topic.Replay replay = properties.getReplay();
+                if (replay.getMaxRecords() > 0) {
+                    rings.put(topic, new KafkaReplayRing(topic, replay.getMaxRecords(), (int) replay.getMaxBytes().toBytes()));
+                }
+            });
+        this.hits =
+            Counter
+                .builder(REPLAY_METER_NAME)
+                .description("Replay requests served entirely from memory.")
+                .tag("result", "hit")
+                .register(meterRegistry);
+        this.misses =
+            Counter
+                .builder(REPLAY_METER_NAME)
+                .description("Replay requests served only partly from memory, or not at all.")
+                .tag("result", "miss")
+                .register(meterRegistry);
+        Gauge
+            .builder(REPLAY_BYTES_METER_NAME, this, KafkaReplayBuffer::getBytes)
+            .description("Size of the keys, values and headers of the records kept for replay.")
+            .baseUnit("bytes")
+            .register(meterRegistry);
+        Gauge
+            .builder(REPLAY_RECORDS_METER_NAME, this, KafkaReplayBuffer::getRecordCount)
+            .description("Number of records kept for replay.")
+            .register(meterRegistry);
+    }
+
+    /**
+     * Keep the records of a partition, if its topic is replayable.
+     */
+    void append(String topic, List<ConsumerRecord<byte[], byte[]>> records) {
+        KafkaReplayRing ring = rings.get(topic);
+        if (ring != null) {
+            records.forEach(ring::append);
+        }
+    }
+
+    /**
+     * Get the most recent records of some topics.
+     *
+     * @param topics the topics.
+     * @param max the maximum number of records.
+     * @return the records, oldest first.
+     */
+    List<ConsumerRecord<byte[], byte[]>> last(Collection<String> topics, int max) {
+        List<List<ConsumerRecord<byte[], byte[]>>> sources = new ArrayList<>();
+        for (String topic : topics) {
+            KafkaReplayRing ring = rings.get(topic);
+            if (ring != null) {
+                sources.add(ring.last(max));
+            }
+        }
+        List<ConsumerRecord<byte[], byte[]>> records = sources.size() == 1 ? sources.get(0) : merge(sources);
+        if (records.size() > max) {
+            records = new ArrayList<>(records.subList(records.size() - max, records.size()));
+        }
+        (records.size() == max ? hits : misses).increment();
+        return records;
+    }
+
+    /**
+     * Merge the records of several rings by timestamp, taking the oldest of their next records each time: the records
+     * of each ring keep their order, so that no partition is reordered by out of order timestamps.
+     */
+    private static List<ConsumerRecord<byte[], byte[]>> merge(List<List<ConsumerRecord<byte[], byte[]>>> sources) {
+        int total = sources.stream().mapToInt(List::size).sum();
+        List<ConsumerRecord<byte[], byte[]>> merged = new ArrayList<>(total);
+        int[] positions = new int[sources.size()];
+        while (merged.size() < total) {
+            int oldest = -1;
+            for (int i = 0; i < sources.size(); i++) {
+                if (
+                    positions[i] < sources.get(i).size() &&
+                    (oldest < 0 || sources.get(i).get(positions[i]).timestamp() < sources.get(oldest).get(positions[oldest]).timestamp())
+                ) {
+                    oldest = i;
+                }
+            }
+            merged.add(sources.get(oldest).get(positions[oldest]++));
+        }
+        return merged;
+    }
+
+    private long getBytes() {
+        return rings.values().stream().mapToLong(KafkaReplayRing::getBytes).sum();
+    }
+
+    private int getRecordCount() {
+        return rings.values().stream().mapToInt(KafkaReplayRing::getRecordCount).sum();
+    }
+}
@@ -0,0 +1,240 @@
+package morozov.vu.service;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.record.TimestampType;
+
+/**
+ * The most recent records of a topic, in a fixed size {@code byte[]} slab.
+ * <p>
+ * The keys, values and headers of the records are copied one after the other in the slab, which is divided in
+ * segments: once the current segment is full, writing moves to the next one, evicting all its records at once, which
+ * are the oldest ones. The other fields of the records are kept in parallel arrays of {@code maxRecords} entries, so a
+ * buffered record costs its bytes plus a few dozen bytes, whatever the number of records.
+ * <p>
+ * Records already buffered, or older than those buffered, are ignored, so several consumers of the same topic can feed
+ * the same ring.
+ */
+class KafkaReplayRing {
+
+    private static final int SEGMENTS = 16;
+
+    private final String topic;
+
+    private final byte[] slab;
+
+    private final int segmentSize;
+
+    private final int[] segmentRecords = new int[SEGMENTS];
+
+    private int segment;
+
+    private int segmentPosition;
+
+    private final int[] partitions;
+
+    private final long[] offsets;
+
+    private final long[] timestamps;
+
+    private final byte[] timestampTypes;
+
+    private final int[] starts;
+
+    private final int[] keyLengths;
+
+    private final int[] valueLengths;
+
+    private final int[] headersLengths;
+
+    /**
+     * Index of the oldest record in the arrays.
+     */
+    private int head;
+
+    private int count;
+
+    private long bytes;
+
+    private final Map<Integer, Long> lastOffsets = new HashMap<>();
+
+    KafkaReplayRing(String topic, int maxRecords, int maxBytes) {
+        this.topic = topic;
+        this.segmentSize = Math.max(1, maxBytes / SEGMENTS);
+        this.slab = new byte[segmentSize * SEGMENTS];
+        this.partitions = new int[maxRecords];
+        this.offsets = new long[maxRecords];
+        this.timestamps = new long[maxRecords];
+        this.timestampTypes = new byte[maxRecords];
+        this.starts = new int[maxRecords];
+        this.keyLengths = new int[maxRecords];
+        this.valueLengths = new int[maxRecords];
+        this.headersLengths = new int[maxRecords];
+    }
+
+    /**
+     * Append a record, unless it is already buffered or larger than a segment.
+     */
+    synchronized void append(ConsumerRecord<byte[], byte[]> record) {
+        Long lastOffset = lastOffsets.get(record.partition());
+        if (lastOffset != null && record.offset() <= lastOffset) {
+            return;
+        }
+        lastOffsets.put(record.partition(), record.offset());
+        byte[] key = record.key();
+        byte[] value = record.value();
+        int headersLength = headersLength(record);
+        int size = (key != null ? key.length : 0) + (value != null ? value.length : 0) + headersLength;
+        if (size > segmentSize) {
+            return;
+        }
+        if (count == partitions.length) {
+            evictOldest();
+        }
+        if (segmentPosition + size > segmentSize) {
+            segment = (segment + 1) % SEGMENTS;
+            segmentPosition = 0;
+            while (segmentRecords[segment] > 0) {
+                evictOldest();
+            }
+        }
+        int index = (head + count) % partitions.length;
+        int start = segment * segmentSize + segmentPosition;
+        partitions[index] = record.partition();
+        offsets[index] = record.offset();
+        timestamps[index] = record.timestamp();
+        timestampTypes[index] = (byte) record.timestampType().id;
+        starts[index] = start;
+        keyLengths[index] = key != null ? key.length : -1;
+        valueLengths[index] = value != null ? value.length : -1;
+        headersLengths[index] = headersLength;
+        ByteBuffer buffer = ByteBuffer.wrap(slab, start, size);
+        if (key != null) {
+            buffer.put(key);
+        }
+        if (value != null) {
+            buffer.put(value);
+        }
+        writeHeaders(buffer, record);
+        segmentPosition += size;
+        segmentRecords[segment]++;
+        count++;
+        bytes += size;
+    }
+
+    /**
+     * Get copies of the most recent records, oldest first.
+     */
+    synchronized List<ConsumerRecord<byte[], byte[]>> last(int max) {
+        int size = Math.min(max, count);
+        List<ConsumerRecord<byte[], byte[]>> records = new ArrayList<>(size);
+        for (int i = count - size; i < count; i++) {
+            records.add(read((head + i) % partitions.length));
+        }
+        return records;
+    }
+
+    synchronized int getRecordCount() {
+        return count;
+    }
+
+    synchronized long getBytes() {
+        return bytes;
+    }
+
+    private void evictOldest() {
+        segmentRecords[starts[head] / segmentSize]--;
+        bytes -= Math.max(0, keyLengths[head]) + Math.max(0, valueLengths[head]) + headersLengths[head];
+        head = (head + 1) % partitions.length;
+        count--;
+    }
+
+    private ConsumerRecord<byte[], byte[]> read(int index) {
+        int position = starts[index];
+        byte[] key = null;
+        if (keyLengths[index] >= 0) {
+            key = Arrays.copyOfRange(slab, position, position + keyLengths[index]);
+            position += keyLengths[index];
+        }
+        byte[] value = null;
+        if (valueLengths[index] >= 0) {
+            value = Arrays.copyOfRange(slab, position, position + valueLengths[index]);
+            position += valueLengths[index];
+        }
+        return new ConsumerRecord<>(
+            topic,
+            partitions[index],
+            offsets[index],
+            timestamps[index],
+            TimestampType.forId(timestampTypes[index]),
+            key != null ? key.length : -1,
+            value != null ? value.length : -1,
+            key,
+            value,
+            readHeaders(ByteBuffer.wrap(slab, position, headersLengths[index])),
+            Optional.empty()
+        );
+    }
+
+    /**
+     * Size of the headers of a record once written: their count, then the length and bytes of each name and value.
+     */
+    private static int headersLength(ConsumerRecord<byte[], byte[]> record) {
+        Header[] headers = record.headers().toArray();
+        if (headers.length == 0) {
+            return 0;
+        }
+        int length = Integer.BYTES;
+        for (Header header : headers) {
+            length += 2 * Integer.BYTES + header.key().getBytes(StandardCharsets.UTF_8).length;
+            length += header.value() != null ? header.value().length : 0;
+        }
+        return length;
+    }
+
+    private static void writeHeaders(ByteBuffer buffer, ConsumerRecord<byte[], byte[]> record) {
+        Header[] headers = record.headers().toArray();
+        if (headers.length == 0) {
+            return;
+        }
+        buffer.putInt(headers.length);
+        for (Header header : headers) {
+            byte[] name = header.key().getBytes(StandardCharsets.UTF_8);
+            buffer.putInt(name.length).put(name);
+            if (header.value() != null) {
+                buffer.putInt(header.value().length).put(header.value());
+            } else {
+                buffer.putInt(-1);
+            }
+        }
+    }
+
+    private static RecordHeaders readHeaders(ByteBuffer buffer) {
+        RecordHeaders headers = new RecordHeaders();
+        if (!buffer.hasRemaining()) {
+            return headers;
+        }
+        int count = buffer.getInt();
+        for (int i = 0; i < count; i++) {
+            byte[] name = new byte[buffer.getInt()];
+            buffer.get(name);
+            int length = buffer.getInt();
+            byte[] value = null;
+            if (length >= 0) {
+                value = new byte[length];
+                buffer.get(value);
+            }
+            headers.add(new String(name, StandardCharsets.UTF_8), value);
+        }
+        return headers;
+    }
+}
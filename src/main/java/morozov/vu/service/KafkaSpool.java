@@ -0,0 +1,403 @@
+package morozov.vu.service;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import morozov.vu.config.KafkaProperties;
+import morozov.vu.management.KafkaPublishMetersService;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.errors.RetriableException;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.Serializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+/**
+ * Local write-ahead spool for publishes while Kafka is unavailable.
+ * <p>
+ * Publishers acquire a permission of a circuit breaker with {@link #tryAcquirePermission} before each send, and report
+ * its outcome with {@link #recordOutcome}. While the circuit is open, or while older records of the same topic are
+ * still waiting in the spool, publishers get no permission and append their records to the spool with {@link #append}
+ * instead of sending them. The circuit opens after a few failed or slow sends, so that few publishers are stuck in
+ * {@code send()} once Kafka is unreachable. A background drainer replays the spooled records into Kafka in order,
+ * with the producers of their topics, as soon as the circuit lets it through again. A batch is only marked as replayed
+ * once all its records are acknowledged, so a failure in the middle of a batch may replay some records twice.
+ * <p>
+ * Records are stored serialized, in memory-mapped {@link SpoolSegment} files of {@code kafka.spool.segment-size}. Once
+ * {@code kafka.spool.max-segments} are full, appends are rejected with {@link KafkaOverloadedException}, and records
+ * larger than a segment with {@link KafkaRecordTooLargeException}.
+ */
+@Service
+public class KafkaSpool {
+
+    public static final String SPOOL_PRODUCER = "spool";
+    public static final String PENDING_METER_NAME = "kafka.spool.pending";
+    public static final String SEGMENTS_METER_NAME = "kafka.spool.segments";
+    public static final String RECORDS_METER_NAME = "kafka.spool.records";
+    public static final String CIRCUIT_OPEN_METER_NAME = "kafka.spool.circuit.open";
+    public static final String OPERATION_DIMENSION = "operation";
+
+    private final Logger log = LoggerFactory.getLogger(KafkaSpool.class);
+
+    private final KafkaProperties kafkaProperties;
+
+    private final KafkaPublishMetersService metersService;
+
+    private final KafkaProperties.Spool properties;
+
+    private final CircuitBreaker circuitBreaker;
+
+    private final Deque<SpoolSegment> segments = new ArrayDeque<>();
+
+    private final AtomicLong pendingBytes = new AtomicLong();
+
+    /**
+     * Pending bytes of the topics with spooled records, so that a backlog only diverts the publishes of its topic.
+     */
+    private final Map<String, Long> topicPendingBytes = new ConcurrentHashMap<>();
+
+    private final Counter appendedCounter;
+
+    private final Counter drainedCounter;
+
+    private long nextSequence;
+
+    private TopicProducerPools<byte[], byte[]> drainProducers;
+
+    private ScheduledExecutorService drainer;
+
+    public KafkaSpool(KafkaProperties kafkaProperties, KafkaPublishMetersService metersService, MeterRegistry meterRegistry) {
+        this.kafkaProperties = kafkaProperties;
+        this.metersService = metersService;
+        this.properties = kafkaProperties.getSpool();
+        this.circuitBreaker =
+            CircuitBreaker.of(
+                "kafka-producer",
+                CircuitBreakerConfig
+                    .custom()
+                    .failureRateThreshold(properties.getCircuitFailureRateThreshold())
+                    .slidingWindowSize(properties.getCircuitSlidingWindowSize())
+                    .minimumNumberOfCalls(properties.getCircuitMinimumNumberOfCalls())
+                    .slowCallRateThreshold(properties.getCircuitFailureRateThreshold())
+                    .slowCallDurationThreshold(slowCallDuration(kafkaProperties))
+                    .waitDurationInOpenState(properties.getCircuitOpenDuration())
+                    .automaticTransitionFromOpenToHalfOpenEnabled(true)
+                    .recordException(throwable -> throwable instanceof RetriableException || throwable instanceof TimeoutException)
+                    .build()
+            );
+        this.appendedCounter = recordsCounter("append").register(meterRegistry);
+        this.drainedCounter = recordsCounter("drain").register(meterRegistry);
+        Gauge
+            .builder(PENDING_METER_NAME, pendingBytes, AtomicLong::get)
+            .baseUnit("bytes")
+            .description("Size of the spooled records not yet replayed into Kafka.")
+            .register(meterRegistry);
+        Gauge
+            .builder(SEGMENTS_METER_NAME, this, KafkaSpool::getSegmentCount)
+            .description("Number of spool segment files.")
+            .register(meterRegistry);
+        Gauge
+            .builder(CIRCUIT_OPEN_METER_NAME, circuitBreaker, breaker -> breaker.getState() == CircuitBreaker.State.OPEN ? 1 : 0)
+            .description("Whether publishes are currently diverted to the spool because Kafka is unavailable.")
+            .register(meterRegistry);
+    }
+
+    /**
+     * The slow send duration, below the {@code max.block.ms} of the producers.
+     */
+    private static Duration slowCallDuration(KafkaProperties kafkaProperties) {
+        Object maxBlock = kafkaProperties.getProducerProps().get(ProducerConfig.MAX_BLOCK_MS_CONFIG);
+        Duration slowCallDuration = kafkaProperties.getSpool().getCircuitSlowCallDuration();
+        if (maxBlock == null) {
+            return slowCallDuration;
+        }
+        Duration blockDuration = Duration.ofMillis(Long.parseLong(maxBlock.toString()));
+        return slowCallDuration.compareTo(blockDuration) < 0 ? slowCallDuration : blockDuration;
+    }
+
+    private Counter.Builder recordsCounter(String operation) {
+        return Counter.builder(RECORDS_METER_NAME).baseUnit("records").tag(OPERATION_DIMENSION, operation);
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        Path directory = Paths.get(properties.getDirectory());
+        Files.createDirectories(directory);
+        List<Path> files;
+        try (Stream<Path> paths = Files.list(directory)) {
+            files = paths.filter(path -> path.toString().endsWith(SpoolSegment.FILE_SUFFIX)).sorted().collect(Collectors.toList());
+        }
+        for (Path file : files) {
+            SpoolSegment segment = SpoolSegment.open(file);
+            segments.addLast(segment);
+            for (int position = segment.getReadPosition(); position < segment.getWritePosition();) {
+                byte[] entry = segment.read(position);
+                addPendingBytes(SpooledRecord.decode(entry).getTopic(), SpoolSegment.entrySize(entry));
+                position += SpoolSegment.entrySize(entry);
+            }
+            nextSequence = segment.getSequence() + 1;
+        }
+        if (pendingBytes.get() > 0) {
+            log.info("Recovered {} bytes of spooled Kafka records from {}", pendingBytes.get(), directory);
+        }
+
+        drainProducers =
+            new TopicProducerPools<>(
+                kafkaProperties,
+                metersService,
+                Map.of(
+                    ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG,
+                    ByteArraySerializer.class.getName(),
+                    ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG,
+                    ByteArraySerializer.class.getName()
+                )
+            );
+        drainer = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("kafka-spool-drainer-"));
+        long interval = properties.getDrainInterval().toMillis();
+        drainer.scheduleWithFixedDelay(this::drain, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() throws IOException, InterruptedException {
+        if (drainer == null) {
+            return;
+        }
+        drainer.shutdown();
+        drainer.awaitTermination(properties.getDrainTimeout().toMillis(), TimeUnit.MILLISECONDS);
+        drainProducers.close();
+        synchronized (this) {
+            for (SpoolSegment segment : segments) {
+                segment.close();
+            }
+            segments.clear();
+        }
+    }
+
+    /**
+     * Whether the records of a topic must currently be appended to the spool rather than sent: the circuit is open, or
+     * older records of the topic are still waiting to be replayed and must not be overtaken.
+     *
+     * @param topic the topic.
+     * @return {@code true} if publishes to the topic must go to the spool.
+     */
+    public boolean isActive(String topic) {
+        return (
+            properties.isEnabled() && (topicPendingBytes.containsKey(topic) || circuitBreaker.getState() == CircuitBreaker.State.OPEN)
+        );
+    }
+
+    /**
+     * Acquire the permission to send a record to Kafka, whose outcome must then be reported with
+     * {@link #recordOutcome}, or given up with {@link #releasePermission} if the record was not sent.
+     *
+     * @param topic the topic of the record.
+     * @return {@code false} if the record must be appended to the spool instead, see {@link #isActive}.
+     */
+    public boolean tryAcquirePermission(String topic) {
+        if (!properties.isEnabled()) {
+            return true;
+        }
+        return !topicPendingBytes.containsKey(topic) && circuitBreaker.tryAcquirePermission();
+    }
+
+    /**
+     * Give up a permission acquired for a record that was not sent.
+     */
+    public void releasePermission() {
+        if (properties.isEnabled()) {
+            circuitBreaker.releasePermission();
+        }
+    }
+
+    /**
+     * Report the outcome of a send to Kafka, for which a permission was acquired.
+     *
+     * @param nanos the duration of the send.
+     * @param exception the failure, or {@code null} if the record was acknowledged.
+     */
+    public void recordOutcome(long nanos, Throwable exception) {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        if (exception == null) {
+            circuitBreaker.onSuccess(nanos, TimeUnit.NANOSECONDS);
+        } else {
+            circuitBreaker.onError(nanos, TimeUnit.NANOSECONDS, exception);
+        }
+    }
+
+    /**
+     * Serialize a record and append it to the spool.
+     *
+     * @param record the record.
+     * @param keySerializer the serializer of the record key.
+     * @param valueSerializer the serializer of the record value.
+     * @throws KafkaOverloadedException if the spool is full.
+     * @throws KafkaRecordTooLargeException if the record is larger than a spool segment.
+     */
+    public <K, V> void append(ProducerRecord<K, V> record, Serializer<K> keySerializer, Serializer<V> valueSerializer) {
+        byte[] key = keySerializer.serialize(record.topic(), record.headers(), record.key());
+        byte[] value = valueSerializer.serialize(record.topic(), record.headers(), record.value());
+        byte[] entry = new SpooledRecord(record.topic(), key, value, record.headers()).encode();
+        int maxEntryLength = SpoolSegment.maxEntryLength((int) properties.getSegmentSize().toBytes());
+        if (entry.length > maxEntryLength) {
+            throw new KafkaRecordTooLargeException(record.topic(), entry.length, maxEntryLength);
+        }
+        synchronized (this) {
+            SpoolSegment active = segments.peekLast();
+            if (active == null || !active.append(entry, properties.isSync())) {
+                if (segments.size() >= properties.getMaxSegments()) {
+                    throw new KafkaOverloadedException(SPOOL_PRODUCER, kafkaProperties.getAdmission().getRetryAfter());
+                }
+                active = createSegment();
+                active.append(entry, properties.isSync());
+            }
+            addPendingBytes(record.topic(), SpoolSegment.entrySize(entry));
+        }
+        appendedCounter.increment();
+    }
+
+    /**
+     * Count the bytes of a topic appended to the spool, or replayed if negative.
+     */
+    private void addPendingBytes(String topic, long bytes) {
+        topicPendingBytes.merge(topic, bytes, (pending, added) -> pending + added == 0 ? null : pending + added);
+        pendingBytes.addAndGet(bytes);
+    }
+
+    private SpoolSegment createSegment() {
+        try {
+            SpoolSegment segment = SpoolSegment.create(
+                Paths.get(properties.getDirectory()),
+                nextSequence++,
+                (int) properties.getSegmentSize().toBytes()
+            );
+            segments.addLast(segment);
+            return segment;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    void drain() {
+        try {
+            while (circuitBreaker.getState() != CircuitBreaker.State.OPEN && drainBatch()) {
+                // keep draining while Kafka accepts the records
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.warn("Failed to drain the Kafka spool: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Replay the next batch of spooled records, and advance the read position once all of them are acknowledged.
+     *
+     * @return {@code true} if there may be more to drain.
+     */
+    private boolean drainBatch() throws IOException, InterruptedException {
+        SpoolSegment segment;
+        int end;
+        synchronized (this) {
+            segment = segments.peekFirst();
+            if (segment == null) {
+                return false;
+            }
+            end = segment.getWritePosition();
+            if (segment.getReadPosition() >= end) {
+                if (segments.size() == 1) {
+                    return false;
+                }
+                segments.removeFirst();
+                segment.delete();
+                return true;
+            }
+        }
+
+        int position = segment.getReadPosition();
+        List<ProducerRecord<byte[], byte[]>> records = new ArrayList<>();
+        Map<String, Long> drainedBytes = new HashMap<>();
+        while (position < end && records.size() < properties.getDrainBatchSize()) {
+            byte[] entry = segment.read(position);
+            ProducerRecord<byte[], byte[]> record = SpooledRecord.decode(entry).toProducerRecord();
+            records.add(record);
+            drainedBytes.merge(record.topic(), (long) SpoolSegment.entrySize(entry), Long::sum);
+            position += SpoolSegment.entrySize(entry);
+        }
+        if (!circuitBreaker.tryAcquirePermission()) {
+            return false;
+        }
+        long sendStart = System.nanoTime();
+        try {
+            List<Future<RecordMetadata>> futures = new ArrayList<>(records.size());
+            for (ProducerRecord<byte[], byte[]> record : records) {
+                futures.add(drainProducer(record).send(record));
+            }
+            for (Future<RecordMetadata> future : futures) {
+                future.get(properties.getDrainTimeout().toMillis(), TimeUnit.MILLISECONDS);
+            }
+        } catch (ExecutionException | TimeoutException | RuntimeException e) {
+            Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+            recordOutcome(System.nanoTime() - sendStart, cause);
+            log.warn("Failed to replay spooled records into Kafka, will retry: {}", cause.getMessage());
+            return false;
+        } catch (InterruptedException e) {
+            circuitBreaker.releasePermission();
+            throw e;
+        }
+        recordOutcome(System.nanoTime() - sendStart, null);
+        segment.markRead(position);
+        drainedBytes.forEach((topic, bytes) -> addPendingBytes(topic, -bytes));
+        drainedCounter.increment(records.size());
+        return true;
+    }
+
+    /**
+     * Get the producer of the topic of a spooled record, striped by key as the publishers do so that the records of a
+     * key keep their order. Keys are hashed by content, the hash of a byte array is its identity.
+     */
+    private Producer<byte[], byte[]> drainProducer(ProducerRecord<byte[], byte[]> record) {
+        List<Producer<byte[], byte[]>> producers = drainProducers.forTopic(record.topic()).getProducers();
+        return producers.get(Math.floorMod(Arrays.hashCode(record.key()), producers.size()));
+    }
+}
@@ -0,0 +1,47 @@
+package morozov.vu.service;
+
+import java.io.IOException;
+import java.util.List;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+
+/**
+ * Receives the records of a {@link KafkaSubscription}.
+ * <p>
+ * Deliveries are never concurrent for a given subscriber, and are made from the hub dispatch threads, never from the
+ * consumer poll loop.
+ */
+public interface KafkaSubscriber {
+    /**
+     * Signal the subscription, before any other call.
+     *
+     * @param subscription the subscription, to {@link KafkaSubscription#pause() pause} deliveries for instance.
+     */
+    default void onSubscribe(KafkaSubscription subscription) {}
+
+    /**
+     * Deliver the next records, in the order they were polled.
+     *
+     * @param records the records, never empty.
+     * @throws IOException if the records cannot be delivered, which cancels the subscription.
+     */
+    void onRecords(List<ConsumerRecord<byte[], byte[]>> records) throws IOException;
+
+    /**
+     * Signal that no records were delivered for a while, so that idle connections are kept alive.
+     *
+     * @throws IOException if the signal cannot be delivered, which cancels the subscription.
+     */
+    void onKeepAlive() throws IOException;
+
+    /**
+     * Signal that the subscription was terminated by the application shutting down, no other call follows.
+     */
+    void onComplete();
+
+    /**
+     * Signal that the subscription was terminated by a failure, no other call follows.
+     *
+     * @param error the failure.
+     */
+    void onError(Throwable error);
+}
@@ -0,0 +1,494 @@
+package morozov.vu.service;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+
+/**
+ * A subscriber's registration to a shared consumer of the {@link KafkaConsumerHub}.
+ * <p>
+ * The consumer poll loop only appends records to the subscription's bounded queue. Delivery to the
+ * {@link KafkaSubscriber} runs on the hub dispatch executor, so a slow subscriber never delays the poll loop nor the
+ * other subscribers. The queue is bounded in records and bytes by the subscription {@link QueueLimits}: once full, the
+ * oldest or the newest records are dropped, or the subscriber is disconnected, according to its
+ * {@link OverflowPolicy}.
+ * <p>
+ * Records are filtered on the poll loop, before they are queued. Queued records are delivered in batches bounded by
+ * the subscription {@link Batching}. With a linger, delivery waits for a full batch at most that long.
+ * <p>
+ * A keepalive is sent to a subscriber which received no records since the previous {@link #keepAlive()}.
+ * <p>
+ * A subscription can start with a {@link #replay(List) replay} of earlier records: records offered in the meantime are
+ * held, then delivered after the replayed ones, except those already replayed.
+ * <p>
+ * Subscribers with their own flow control can {@link #pause()} and {@link #resume()} deliveries, records keep being
+ * queued meanwhile.
+ */
+public class KafkaSubscription {
+
+    private final KafkaSubscriber subscriber;
+
+    private final Executor dispatchExecutor;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final QueueLimits queueLimits;
+
+    private final Batching batching;
+
+    private final Predicate<ConsumerRecord<byte[], byte[]>> filter;
+
+    private final Deque<ConsumerRecord<byte[], byte[]>> queue = new ArrayDeque<>();
+
+    private long queuedBytes;
+
+    private boolean keepAlivePending;
+
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    private final AtomicBoolean lingering = new AtomicBoolean();
+
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+
+    private final AtomicBoolean delivered = new AtomicBoolean();
+
+    private volatile Runnable onCancel = () -> {};
+
+    private volatile boolean holding;
+
+    private volatile boolean paused;
+
+    private final AtomicLong droppedRecords = new AtomicLong();
+
+    private final AtomicLong sendCount = new AtomicLong();
+
+    private final AtomicLong sendNanos = new AtomicLong();
+
+    /**
+     * Offset of the last replayed record of each partition, until a more recent record of the partition is offered.
+     */
+    private Map<TopicPartition, Long> replayed;
+
+    KafkaSubscription(
+        KafkaSubscriber subscriber,
+        Executor dispatchExecutor,
+        ScheduledExecutorService scheduler,
+        QueueLimits queueLimits,
+        Batching batching,
+        Predicate<ConsumerRecord<byte[], byte[]>> filter
+    ) {
+        this.subscriber = subscriber;
+        this.dispatchExecutor = dispatchExecutor;
+        this.scheduler = scheduler;
+        this.queueLimits = queueLimits;
+        this.batching = batching;
+        this.filter = filter;
+    }
+
+    void onCancel(Runnable onCancel) {
+        this.onCancel = onCancel;
+    }
+
+    /**
+     * Queue the records of a poll for delivery, keeping only those accepted by the subscription filter.
+     */
+    void offer(List<ConsumerRecord<byte[], byte[]>> polled) {
+        if (cancelled.get()) {
+            return;
+        }
+        List<ConsumerRecord<byte[], byte[]>> records = polled;
+        if (filter != KafkaRecordFilter.ACCEPT_ALL) {
+            records = new ArrayList<>(polled.size());
+            for (ConsumerRecord<byte[], byte[]> record : polled) {
+                if (filter.test(record)) {
+                    records.add(record);
+                }
+            }
+        }
+        if (records.isEmpty()) {
+            return;
+        }
+        boolean overflow;
+        boolean batchReady;
+        synchronized (queue) {
+            for (ConsumerRecord<byte[], byte[]> record : records) {
+                if (replayed != null && isReplayed(record)) {
+                    continue;
+                }
+                queue.addLast(record);
+                queuedBytes += sizeOf(record);
+            }
+            overflow = isOverflowing();
+            if (overflow && queueLimits.policy != OverflowPolicy.DISCONNECT) {
+                while (isOverflowing()) {
+                    ConsumerRecord<byte[], byte[]> dropped = queueLimits.policy == OverflowPolicy.DROP_OLDEST
+                        ? queue.pollFirst()
+                        : queue.pollLast();
+                    queuedBytes -= sizeOf(dropped);
+                    droppedRecords.incrementAndGet();
+                }
+                overflow = false;
+            }
+            batchReady = queue.size() >= batching.maxRecords || queuedBytes >= batching.maxBytes;
+        }
+        if (overflow) {
+            fail(
+                new IllegalStateException(
+                    "Subscriber too slow, more than " + queueLimits.maxRecords + " records or " + queueLimits.maxBytes + " bytes queued"
+                )
+            );
+        } else if (batchReady || batching.linger.isZero()) {
+            schedule();
+        } else if (lingering.compareAndSet(false, true)) {
+            scheduler.schedule(
+                () -> {
+                    lingering.set(false);
+                    schedule();
+                },
+                batching.linger.toNanos(),
+                TimeUnit.NANOSECONDS
+            );
+        }
+    }
+
+    /**
+     * Stop delivering records, after the current delivery if any.
+     */
+    public void pause() {
+        paused = true;
+    }
+
+    /**
+     * Resume delivering records.
+     */
+    public void resume() {
+        paused = false;
+        schedule();
+    }
+
+    /**
+     * Hold the offered records until the {@link #replay(List) replay}.
+     */
+    void hold() {
+        holding = true;
+    }
+
+    /**
+     * Deliver earlier records before those offered since the subscription was {@link #hold() held}, dropping the held
+     * records which are replayed.
+     *
+     * @param records the records to replay, in order.
+     */
+    void replay(List<ConsumerRecord<byte[], byte[]>> records) {
+        synchronized (queue) {
+            if (!records.isEmpty()) {
+                replayed = new HashMap<>();
+                for (ConsumerRecord<byte[], byte[]> record : records) {
+                    replayed.merge(new TopicPartition(record.topic(), record.partition()), record.offset(), Math::max);
+                }
+                Deque<ConsumerRecord<byte[], byte[]>> held = new ArrayDeque<>(queue);
+                queue.clear();
+                queuedBytes = 0;
+                for (ConsumerRecord<byte[], byte[]> record : records) {
+                    if (filter.test(record)) {
+                        queue.addLast(record);
+                        queuedBytes += sizeOf(record);
+                    }
+                }
+                for (ConsumerRecord<byte[], byte[]> record : held) {
+                    if (replayed == null || !isReplayed(record)) {
+                        queue.addLast(record);
+                        queuedBytes += sizeOf(record);
+                    }
+                }
+            }
+            holding = false;
+        }
+        schedule();
+    }
+
+    /**
+     * Whether a record was replayed, forgetting the replayed offset of its partition once a more recent record comes.
+     */
+    private boolean isReplayed(ConsumerRecord<byte[], byte[]> record) {
+        TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+        Long offset = replayed.get(partition);
+        if (offset == null) {
+            return false;
+        }
+        if (record.offset() <= offset) {
+            return true;
+        }
+        replayed.remove(partition);
+        if (replayed.isEmpty()) {
+            replayed = null;
+        }
+        return false;
+    }
+
+    /**
+     * Send a keepalive to the subscriber, unless it received records since the previous call.
+     */
+    void keepAlive() {
+        if (cancelled.get() || delivered.getAndSet(false)) {
+            return;
+        }
+        synchronized (queue) {
+            if (!queue.isEmpty()) {
+                return;
+            }
+            keepAlivePending = true;
+        }
+        schedule();
+    }
+
+    private boolean isOverflowing() {
+        return !queue.isEmpty() && (queue.size() > queueLimits.maxRecords || queuedBytes > queueLimits.maxBytes);
+    }
+
+    public int getQueuedRecords() {
+        synchronized (queue) {
+            return queue.size();
+        }
+    }
+
+    public long getQueuedBytes() {
+        synchronized (queue) {
+            return queuedBytes;
+        }
+    }
+
+    /**
+     * @return how far behind the subscriber is: the age of the oldest queued record, or 0 if none is queued or if it
+     * has no timestamp.
+     */
+    public long getLagMillis() {
+        synchronized (queue) {
+            ConsumerRecord<byte[], byte[]> oldest = queue.peekFirst();
+            if (oldest == null || oldest.timestamp() < 0) {
+                return 0;
+            }
+            return Math.max(0, System.currentTimeMillis() - oldest.timestamp());
+        }
+    }
+
+    /**
+     * @return the number of records dropped because the queue was full.
+     */
+    public long getDroppedRecords() {
+        return droppedRecords.get();
+    }
+
+    /**
+     * @return the number of deliveries of records to the subscriber.
+     */
+    public long getSendCount() {
+        return sendCount.get();
+    }
+
+    /**
+     * @return the total time spent delivering records to the subscriber.
+     */
+    public long getSendNanos() {
+        return sendNanos.get();
+    }
+
+    public boolean isCancelled() {
+        return cancelled.get();
+    }
+
+    /**
+     * Stop receiving records. The shared consumer is closed once it has no subscription left.
+     */
+    public void cancel() {
+        if (cancelled.compareAndSet(false, true)) {
+            synchronized (queue) {
+                queue.clear();
+                queuedBytes = 0;
+            }
+            onCancel.run();
+        }
+    }
+
+    void complete() {
+        if (!cancelled.get()) {
+            cancel();
+            subscriber.onComplete();
+        }
+    }
+
+    void fail(Throwable error) {
+        if (!cancelled.get()) {
+            cancel();
+            subscriber.onError(error);
+        }
+    }
+
+    private void schedule() {
+        if (!holding && !paused && scheduled.compareAndSet(false, true)) {
+            dispatchExecutor.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        try {
+            while (!cancelled.get() && !paused) {
+                List<ConsumerRecord<byte[], byte[]>> records;
+                boolean keepAlive;
+                synchronized (queue) {
+                    records = takeBatch();
+                    keepAlive = queue.isEmpty() && keepAlivePending;
+                    if (keepAlive) {
+                        keepAlivePending = false;
+                    }
+                }
+                if (records.isEmpty() && !keepAlive) {
+                    break;
+                }
+                if (!records.isEmpty()) {
+                    long start = System.nanoTime();
+                    subscriber.onRecords(records);
+                    sendNanos.addAndGet(System.nanoTime() - start);
+                    sendCount.incrementAndGet();
+                    delivered.set(true);
+                }
+                if (keepAlive) {
+                    subscriber.onKeepAlive();
+                }
+            }
+        } catch (Exception e) {
+            fail(e);
+            return;
+        } finally {
+            scheduled.set(false);
+        }
+        // Records offered between the last check and the reset of the flag would be left behind otherwise.
+        boolean pending;
+        synchronized (queue) {
+            pending = !queue.isEmpty() || keepAlivePending;
+        }
+        if (pending && !cancelled.get()) {
+            schedule();
+        }
+    }
+
+    /**
+     * Take the next batch from the queue: at least one record if any, then as many as the batching limits allow.
+     */
+    private List<ConsumerRecord<byte[], byte[]>> takeBatch() {
+        List<ConsumerRecord<byte[], byte[]>> records = new ArrayList<>(Math.min(queue.size(), batching.maxRecords));
+        long bytes = 0;
+        while (!queue.isEmpty() && records.size() < batching.maxRecords) {
+            long size = sizeOf(queue.peekFirst());
+            if (!records.isEmpty() && bytes + size > batching.maxBytes) {
+                break;
+            }
+            records.add(queue.pollFirst());
+            bytes += size;
+        }
+        queuedBytes -= bytes;
+        return records;
+    }
+
+    static long sizeOf(ConsumerRecord<byte[], byte[]> record) {
+        return Math.max(0, record.serializedKeySize()) + Math.max(0, record.serializedValueSize());
+    }
+
+    /**
+     * What to do with the records offered to a subscription whose queue is full.
+     */
+    public enum OverflowPolicy {
+        /**
+         * Drop the oldest queued records, the subscriber skips them.
+         */
+        DROP_OLDEST,
+        /**
+         * Drop the offered records, the subscriber skips them.
+         */
+        DROP_NEWEST,
+        /**
+         * Disconnect the subscriber.
+         */
+        DISCONNECT;
+
+        /**
+         * Get a policy from its name, e.g. {@code drop-oldest}.
+         *
+         * @throws IllegalArgumentException if the name is unknown.
+         */
+        public static OverflowPolicy of(String name) {
+            try {
+                return valueOf(name.toUpperCase(Locale.ROOT).replace('-', '_'));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown overflow policy " + name);
+            }
+        }
+    }
+
+    /**
+     * Limits of the records waiting to be delivered to a subscriber.
+     */
+    public static class QueueLimits {
+
+        private final int maxRecords;
+
+        private final long maxBytes;
+
+        private final OverflowPolicy policy;
+
+        /**
+         * @param maxRecords the maximum number of queued records.
+         * @param maxBytes the maximum size of the keys and values of the queued records.
+         * @param policy what to do once a limit is exceeded.
+         */
+        public QueueLimits(int maxRecords, long maxBytes, OverflowPolicy policy) {
+            this.maxRecords = maxRecords;
+            this.maxBytes = maxBytes;
+            this.policy = policy;
+        }
+    }
+
+    /**
+     * Limits of the batches of records delivered to a subscriber at once.
+     */
+    public static class Batching {
+
+        /**
+         * Every queued record delivered at once, without waiting.
+         */
+        public static final Batching UNBOUNDED = new Batching(Integer.MAX_VALUE, Long.MAX_VALUE, Duration.ZERO);
+
+        private final int maxRecords;
+
+        private final long maxBytes;
+
+        private final Duration linger;
+
+        /**
+         * @param maxRecords the maximum number of records of a batch.
+         * @param maxBytes the maximum size of the keys and values of a batch, unless it has a single record.
+         * @param linger how long records may wait for a batch to fill up.
+         */
+        public Batching(int maxRecords, long maxBytes, Duration linger) {
+            if (maxRecords < 1) {
+                throw new IllegalArgumentException("Batches must hold at least 1 record, was " + maxRecords);
+            }
+            this.maxRecords = maxRecords;
+            this.maxBytes = maxBytes;
+            this.linger = linger;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package morozov.vu.service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.errors.AuthorizationException;
+import org.apache.kafka.common.errors.OutOfOrderSequenceException;
+import org.apache.kafka.common.errors.ProducerFencedException;
+import org.apache.kafka.common.errors.UnsupportedVersionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A fixed set of transactional {@link Producer} instances, each with its own {@code transactional.id}.
+ * <p>
+ * A producer can only run one transaction at a time, so each transaction borrows a member for its whole duration.
+ * Members hit by a fatal error, e.g. fenced by another instance using the same {@code transactional.id}, are closed and
+ * created again on their next use.
+ */
+public class KafkaTransactionalProducerPool<K, V> implements AutoCloseable {
+
+    private final Logger log = LoggerFactory.getLogger(KafkaTransactionalProducerPool.class);
+
+    private final IntFunction<Producer<K, V>> producerFactory;
+
+    private final List<Producer<K, V>> producers;
+
+    private final BlockingQueue<Integer> idle;
+
+    /**
+     * @param size the number of members.
+     * @param producerFactory creates the member of the given index, with transactions already initialized.
+     * @throws RuntimeException if a member cannot be created, once the members already created are closed.
+     */
+    public KafkaTransactionalProducerPool(int size, IntFunction<Producer<K, V>> producerFactory) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Producer pool size must be at least 1, was " + size);
+        }
+        this.producerFactory = producerFactory;
+        this.producers = new ArrayList<>(size);
+        this.idle = new ArrayBlockingQueue<>(size);
+        try {
+            for (int i = 0; i < size; i++) {
+                producers.add(producerFactory.apply(i));
+                idle.add(i);
+            }
+        } catch (RuntimeException e) {
+            producers.forEach(Producer::close);
+            throw e;
+        }
+    }
+
+    /**
+     * Run some sends in a single transaction: the transaction is committed if {@code work} completes, and aborted if it
+     * throws or if any of its records is rejected by the broker.
+     *
+     * @param maxWait how long to wait for an idle member.
+     * @param work sends the records of the transaction with the given producer.
+     * @return the result of {@code work}.
+     * @throws TimeoutException if no member became idle within {@code maxWait}.
+     * @throws InterruptedException if interrupted while waiting for an idle member.
+     * @throws KafkaException if the transaction was aborted.
+     */
+    public <T> T executeInTransaction(Duration maxWait, Function<Producer<K, V>, T> work) throws TimeoutException, InterruptedException {
+        Integer index = idle.poll(maxWait.toMillis(), TimeUnit.MILLISECONDS);
+        if (index == null) {
+            throw new TimeoutException("No idle transactional producer within " + maxWait.toMillis() + " ms");
+        }
+        boolean fatal = false;
+        Producer<K, V> producer = null;
+        try {
+            producer = borrow(index);
+            producer.beginTransaction();
+            T result = work.apply(producer);
+            producer.commitTransaction();
+            return result;
+        } catch (ProducerFencedException | OutOfOrderSequenceException | AuthorizationException | UnsupportedVersionException e) {
+            fatal = true;
+            throw e;
+        } catch (RuntimeException e) {
+            fatal = producer != null && !abort(producer);
+            throw e;
+        } finally {
+            if (fatal) {
+                discard(index, producer);
+            }
+            idle.add(index);
+        }
+    }
+
+    /**
+     * Get the member of the given index, creating it again if it was discarded.
+     */
+    private synchronized Producer<K, V> borrow(int index) {
+        Producer<K, V> producer = producers.get(index);
+        if (producer == null) {
+            producer = producerFactory.apply(index);
+            producers.set(index, producer);
+        }
+        return producer;
+    }
+
+    private boolean abort(Producer<K, V> producer) {
+        try {
+            producer.abortTransaction();
+            return true;
+        } catch (RuntimeException e) {
+            log.warn("Failed to abort Kafka transaction: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    private synchronized void discard(int index, Producer<K, V> producer) {
+        log.warn("Discarding transactional producer {} after a fatal error", index);
+        producers.set(index, null);
+        if (producer != null) {
+            try {
+                producer.close(Duration.ZERO);
+            } catch (KafkaException e) {
+                log.debug("Failed to close transactional producer {}: {}", index, e.getMessage());
+            }
+        }
+    }
+
+    public int size() {
+        return producers.size();
+    }
+
+    @Override
+    public synchronized void close() {
+        producers.stream().filter(Objects::nonNull).forEach(Producer::close);
+    }
+}
@@ -0,0 +1,99 @@
+package morozov.vu.service;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import org.apache.kafka.common.TopicPartition;
+
+/**
+ * A position in some topics: an offset per partition.
+ * <p>
+ * Its text form lists {@code topic/partition/offset} entries separated by commas, which is unambiguous since topic
+ * names cannot contain {@code /} nor {@code ,}.
+ */
+public class PartitionOffsets {
+
+    private static final Comparator<TopicPartition> ORDER = Comparator
+        .comparing(TopicPartition::topic)
+        .thenComparingInt(TopicPartition::partition);
+
+    private final SortedMap<TopicPartition, Long> offsets = new TreeMap<>(ORDER);
+
+    public PartitionOffsets() {}
+
+    public PartitionOffsets(Map<TopicPartition, Long> offsets) {
+        this.offsets.putAll(offsets);
+    }
+
+    /**
+     * Parse the text form of a position.
+     *
+     * @param value the text form.
+     * @return the position.
+     * @throws IllegalArgumentException if the value is malformed.
+     */
+    public static PartitionOffsets parse(String value) {
+        PartitionOffsets result = new PartitionOffsets();
+        if (value == null || value.isBlank()) {
+            return result;
+        }
+        for (String entry : value.split(",")) {
+            String[] parts = entry.trim().split("/");
+            if (parts.length != 3 || parts[0].isEmpty()) {
+                throw new IllegalArgumentException("Invalid partition offset " + entry + ", expected topic/partition/offset");
+            }
+            try {
+                result.put(new TopicPartition(parts[0], Integer.parseInt(parts[1])), Long.parseLong(parts[2]));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid partition offset " + entry + ", expected topic/partition/offset");
+            }
+        }
+        return result;
+    }
+
+    public void put(TopicPartition partition, long offset) {
+        offsets.put(partition, offset);
+    }
+
+    public Long get(TopicPartition partition) {
+        return offsets.get(partition);
+    }
+
+    public boolean isEmpty() {
+        return offsets.isEmpty();
+    }
+
+    public Map<TopicPartition, Long> asMap() {
+        return Collections.unmodifiableMap(offsets);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof PartitionOffsets)) {
+            return false;
+        }
+        return offsets.equals(((PartitionOffsets) o).offsets);
+    }
+
+    @Override
+    public int hashCode() {
+        return offsets.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        offsets.forEach((partition, offset) -> {
+            if (result.length() > 0) {
+                result.append(',');
+            }
+            result.append(partition.topic()).append('/').append(partition.partition()).append('/').append(offset);
+        });
+        return result.toString();
+    }
+}
@@ -0,0 +1,68 @@
+package morozov.vu.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.persistence.EntityManager;
+import morozov.vu.config.ApplicationProperties;
+import morozov.vu.domain.ShopOne;
+import morozov.vu.repository.ShopOneRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Service creating {@link ShopOne}s in bulk.
+ * <p>
+ * The shopOnes and their outbox events are persisted in chunks: each chunk is flushed, so that Hibernate sends its
+ * inserts as JDBC batches ({@code hibernate.jdbc.batch_size}, {@code hibernate.order_inserts}), then cleared from the
+ * persistence context, so that the context does not grow with the number of shopOnes. Ids come from the pooled
+ * sequence, a round trip every 50 ids.
+ */
+@Service
+@Transactional
+public class ShopOneBulkService {
+
+    private final Logger log = LoggerFactory.getLogger(ShopOneBulkService.class);
+
+    private final ShopOneRepository shopOneRepository;
+
+    private final ShopOneEventPublisher shopOneEventPublisher;
+
+    private final EntityManager entityManager;
+
+    private final ApplicationProperties.Bulk properties;
+
+    public ShopOneBulkService(
+        ShopOneRepository shopOneRepository,
+        ShopOneEventPublisher shopOneEventPublisher,
+        EntityManager entityManager,
+        ApplicationProperties applicationProperties
+    ) {
+        this.shopOneRepository = shopOneRepository;
+        this.shopOneEventPublisher = shopOneEventPublisher;
+        this.entityManager = entityManager;
+        this.properties = applicationProperties.getBulk();
+    }
+
+    /**
+     * Create shopOnes and publish their events.
+     *
+     * @param shopOnes the shopOnes to create, without ids.
+     * @return the ids of the created shopOnes, in order.
+     */
+    public List<Long> createAll(List<ShopOne> shopOnes) {
+        log.debug("Request to create {} ShopOnes", shopOnes.size());
+        List<Long> ids = new ArrayList<>(shopOnes.size());
+        int chunkSize = properties.getChunkSize();
+        for (int from = 0; from < shopOnes.size(); from += chunkSize) {
+            List<ShopOne> chunk = shopOnes.subList(from, Math.min(from + chunkSize, shopOnes.size()));
+            shopOneRepository.saveAll(chunk);
+            shopOneEventPublisher.publishAll(chunk);
+            chunk.forEach(shopOne -> ids.add(shopOne.getId()));
+            entityManager.flush();
+            entityManager.clear();
+        }
+        return ids;
+    }
+}
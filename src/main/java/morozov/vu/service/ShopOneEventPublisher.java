@@ -0,0 +1,117 @@
+package morozov.vu.service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import morozov.vu.domain.ShopOne;
+import morozov.vu.domain.ShopOneOutboxEvent;
+import morozov.vu.repository.ShopOneOutboxRepository;
+import morozov.vu.repository.ShopOneRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.kafka.support.serializer.JsonSerializer;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Service publishing {@link ShopOne} events to Kafka, through the outbox relayed by {@link ShopOneOutboxRelay}.
+ * <p>
+ * Besides the creation events of {@link #TOPIC}, every change is published to the compacted {@link #CHANGES_TOPIC},
+ * keyed by id: the latest record of each key is the current state of the shopOne, or a tombstone once it is deleted,
+ * so that consumers can keep a replica in sync.
+ * <p>
+ * The outbox is relayed in id order, which is not the commit order of the events. So a change locks the shopOne until
+ * its transaction commits, and replaces the change event of the shopOne not yet relayed: a shopOne has at most one
+ * change event waiting in the outbox, written after the previous one was relayed or replaced, and its latest state is
+ * never published before an older one. A change event the relay is sending is left to it, without waiting on Kafka:
+ * the relay deletes it if it fails, as superseded by the new one, which is sent after it otherwise.
+ */
+@Service
+public class ShopOneEventPublisher {
+
+    public static final String TOPIC = "topic";
+
+    public static final String CHANGES_TOPIC = "shop-one-changes";
+
+    private final Logger log = LoggerFactory.getLogger(ShopOneEventPublisher.class);
+
+    private final ShopOneOutboxRepository outboxRepository;
+
+    private final ShopOneRepository shopOneRepository;
+
+    private final JsonSerializer<ShopOne> valueSerializer = new JsonSerializer<>();
+
+    public ShopOneEventPublisher(ShopOneOutboxRepository outboxRepository, ShopOneRepository shopOneRepository) {
+        this.outboxRepository = outboxRepository;
+        this.shopOneRepository = shopOneRepository;
+    }
+
+    /**
+     * Write the events of a created shopOne to the outbox, in the transaction of the creation: the events are published
+     * once the transaction commits, and never if it rolls back.
+     *
+     * @param shopOne the created shopOne.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void publish(ShopOne shopOne) {
+        log.debug("Request to publish ShopOne : {}", shopOne);
+        String payload = serialize(shopOne);
+        outboxRepository.save(event(TOPIC, shopOne.getId(), payload));
+        outboxRepository.save(event(CHANGES_TOPIC, shopOne.getId(), payload));
+    }
+
+    /**
+     * Write the events of created shopOnes to the outbox, in the transaction of the creation.
+     *
+     * @param shopOnes the created shopOnes.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void publishAll(List<ShopOne> shopOnes) {
+        log.debug("Request to publish {} ShopOnes", shopOnes.size());
+        List<ShopOneOutboxEvent> events = new ArrayList<>(2 * shopOnes.size());
+        for (ShopOne shopOne : shopOnes) {
+            String payload = serialize(shopOne);
+            events.add(event(TOPIC, shopOne.getId(), payload));
+            events.add(event(CHANGES_TOPIC, shopOne.getId(), payload));
+        }
+        outboxRepository.saveAll(events);
+    }
+
+    /**
+     * Write the change event of an updated shopOne to the outbox, in the transaction of the update.
+     *
+     * @param shopOne the updated shopOne.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void publishUpdate(ShopOne shopOne) {
+        log.debug("Request to publish ShopOne update : {}", shopOne);
+        publishChange(shopOne.getId(), serialize(shopOne));
+    }
+
+    /**
+     * Write the tombstone of a shopOne to the outbox, in the transaction of its deletion, before the shopOne is deleted.
+     *
+     * @param id the id of the deleted shopOne.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void publishDeletion(Long id) {
+        log.debug("Request to publish ShopOne deletion : {}", id);
+        publishChange(id, null);
+    }
+
+    private void publishChange(Long id, String payload) {
+        shopOneRepository.findForUpdate(id);
+        outboxRepository.deletePending(CHANGES_TOPIC, id, Instant.now());
+        outboxRepository.save(event(CHANGES_TOPIC, id, payload));
+    }
+
+    private String serialize(ShopOne shopOne) {
+        return new String(valueSerializer.serialize(TOPIC, shopOne), StandardCharsets.UTF_8);
+    }
+
+    private static ShopOneOutboxEvent event(String topic, Long key, String payload) {
+        return new ShopOneOutboxEvent().topic(topic).recordKey(key).payload(payload).createdDate(Instant.now());
+    }
+}
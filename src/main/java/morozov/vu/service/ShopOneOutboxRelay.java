@@ -0,0 +1,271 @@
+package morozov.vu.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import morozov.vu.config.KafkaProperties;
+import morozov.vu.domain.ShopOne;
+import morozov.vu.domain.ShopOneOutboxEvent;
+import morozov.vu.management.KafkaPublishMetersService;
+import morozov.vu.repository.ShopOneOutboxRepository;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.mapping.AbstractJavaTypeMapper;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Relays the events of the outbox table to Kafka.
+ * <p>
+ * Each batch of events is claimed in a short transaction, for the time it takes to send it, then sent asynchronously
+ * outside of any transaction, so that neither the connection nor the locks of the database wait on Kafka. The callback
+ * of each send records its outcome. Once every callback ran, the events acknowledged before the first failure are
+ * deleted in a second transaction, and the others are released and stay in the outbox, which is their retry queue:
+ * they are the oldest, so they are sent again first and in the same order, after a backoff. Events are thus published
+ * at least once, and in the order of the outbox. The producer is idempotent, so that its own retries do not reorder a
+ * partition either. A relay claims no events while others are claimed, so the relays of several instances take turns
+ * rather than publish the same events, and the claim of a relay which stopped expires.
+ * <p>
+ * Nothing waits on the relay, so its producer lingers to fill large batches, see {@code KafkaProducerConfig}.
+ */
+@Service
+public class ShopOneOutboxRelay {
+
+    public static final String RELAYED_METER_NAME = "kafka.outbox.relayed";
+    public static final String OUTCOME_DIMENSION = "outcome";
+
+    /**
+     * Time left to the producer to run the callbacks of the sends it gave up on.
+     */
+    private static final Duration CALLBACK_GRACE = Duration.ofSeconds(5);
+
+    /**
+     * Time left to the relay to delete or release the events it claimed, once their callbacks ran.
+     */
+    private static final Duration CLAIM_GRACE = Duration.ofSeconds(30);
+
+    private static final byte[] TYPE_ID = ShopOne.class.getName().getBytes(StandardCharsets.UTF_8);
+
+    private final Logger log = LoggerFactory.getLogger(ShopOneOutboxRelay.class);
+
+    private final KafkaProperties.Outbox properties;
+
+    private final ShopOneOutboxRepository outboxRepository;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final KafkaTemplate<Long, String> kafkaTemplate;
+
+    private final KafkaPublishMetersService metersService;
+
+    private final Counter successCounter;
+
+    private final Counter failureCounter;
+
+    /**
+     * Delay before the next relay, doubled by each batch with failures.
+     */
+    private long delayMillis;
+
+    private ScheduledExecutorService relay;
+
+    public ShopOneOutboxRelay(
+        KafkaProperties kafkaProperties,
+        ShopOneOutboxRepository outboxRepository,
+        PlatformTransactionManager transactionManager,
+        KafkaTemplate<Long, String> kafkaTemplate,
+        KafkaPublishMetersService metersService,
+        MeterRegistry meterRegistry
+    ) {
+        this.properties = kafkaProperties.getOutbox();
+        this.outboxRepository = outboxRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.kafkaTemplate = kafkaTemplate;
+        this.metersService = metersService;
+        this.successCounter = relayedCounter("success").register(meterRegistry);
+        this.failureCounter = relayedCounter("failure").register(meterRegistry);
+    }
+
+    private Counter.Builder relayedCounter(String outcome) {
+        return Counter
+            .builder(RELAYED_METER_NAME)
+            .baseUnit("records")
+            .description("Number of outbox events sent to Kafka.")
+            .tag(OUTCOME_DIMENSION, outcome);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        delayMillis = properties.getPollInterval().toMillis();
+        relay = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("kafka-outbox-relay-"));
+        relay.schedule(this::relay, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (relay == null) {
+            return;
+        }
+        relay.shutdown();
+        relay.awaitTermination(properties.getSendTimeout().plus(CALLBACK_GRACE).toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    void relay() {
+        try {
+            Batch batch;
+            do {
+                batch = relayBatch();
+            } while (batch.failures == 0 && batch.full);
+            delayMillis = batch.failures == 0 ? properties.getPollInterval().toMillis() : backOff();
+        } catch (Exception e) {
+            log.warn("Failed to relay the outbox to Kafka, will retry: {}", e.getMessage());
+            delayMillis = backOff();
+        } finally {
+            if (!relay.isShutdown()) {
+                relay.schedule(this::relay, delayMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private long backOff() {
+        return Math.min(2 * delayMillis, properties.getMaxRetryBackoff().toMillis());
+    }
+
+    /**
+     * Send the oldest events of the outbox and delete the acknowledged ones, up to the first that was not: the later
+     * events stay in the outbox to be sent again after it, so that no event is published after an older one failed.
+     */
+    private Batch relayBatch() {
+        List<ShopOneOutboxEvent> events = transactionTemplate.execute(status -> claimOldest());
+        if (events.isEmpty()) {
+            return new Batch(false, 0);
+        }
+        Set<Long> acknowledged = send(events);
+        List<Long> deleted = new ArrayList<>(events.size());
+        List<Long> released = new ArrayList<>();
+        for (ShopOneOutboxEvent event : events) {
+            if (released.isEmpty() && acknowledged.contains(event.getId())) {
+                deleted.add(event.getId());
+            } else {
+                released.add(event.getId());
+            }
+        }
+        transactionTemplate.executeWithoutResult(status -> {
+            if (!deleted.isEmpty()) {
+                outboxRepository.deleteAllByIdInBatch(deleted);
+            }
+            if (!released.isEmpty()) {
+                outboxRepository.deleteSuperseded(released);
+                outboxRepository.release(released);
+            }
+        });
+        return new Batch(events.size() == properties.getBatchSize(), released.size());
+    }
+
+    /**
+     * Claim the oldest events until their sends are over, unless the events of another relay are still claimed.
+     */
+    private List<ShopOneOutboxEvent> claimOldest() {
+        List<ShopOneOutboxEvent> events = outboxRepository.findOldestForUpdate(PageRequest.of(0, properties.getBatchSize()));
+        Instant now = Instant.now();
+        if (events.isEmpty() || outboxRepository.existsByClaimedUntilAfter(now)) {
+            return Collections.emptyList();
+        }
+        Instant claimedUntil = now.plus(properties.getSendTimeout()).plus(CALLBACK_GRACE).plus(CLAIM_GRACE);
+        events.forEach(event -> event.setClaimedUntil(claimedUntil));
+        return events;
+    }
+
+    /**
+     * Send events and wait for their callbacks.
+     *
+     * @return the ids of the acknowledged events.
+     */
+    private Set<Long> send(List<ShopOneOutboxEvent> events) {
+        Set<Long> acknowledged = ConcurrentHashMap.newKeySet(events.size());
+        CountDownLatch callbacks = new CountDownLatch(events.size());
+        for (int i = 0; i < events.size(); i++) {
+            ShopOneOutboxEvent event = events.get(i);
+            long start = System.nanoTime();
+            try {
+                kafkaTemplate
+                    .send(toProducerRecord(event))
+                    .addCallback(
+                        result -> {
+                            metersService.recordAck(event.getTopic(), System.nanoTime() - start, null);
+                            successCounter.increment();
+                            acknowledged.add(event.getId());
+                            callbacks.countDown();
+                        },
+                        ex -> {
+                            metersService.recordAck(event.getTopic(), System.nanoTime() - start, ex);
+                            failureCounter.increment();
+                            log.debug("Failed to relay outbox event {}, will retry: {}", event.getId(), ex.getMessage());
+                            callbacks.countDown();
+                        }
+                    );
+            } catch (RuntimeException e) {
+                // Neither are the later events sent, so as not to wait for their callbacks.
+                failureCounter.increment();
+                log.debug("Failed to relay outbox event {}, will retry: {}", event.getId(), e.getMessage());
+                for (int unsent = i; unsent < events.size(); unsent++) {
+                    callbacks.countDown();
+                }
+                break;
+            }
+            metersService.recordSerialize(event.getTopic(), System.nanoTime() - start);
+        }
+        try {
+            // The producer gives up on each send after delivery.timeout.ms, so every callback ran by then.
+            callbacks.await(properties.getSendTimeout().plus(CALLBACK_GRACE).toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return acknowledged;
+    }
+
+    /**
+     * The record of an event, with the type header of the records the {@code JsonSerializer} used to produce, which the
+     * {@code JsonDeserializer} of the consumers relies on.
+     */
+    private static ProducerRecord<Long, String> toProducerRecord(ShopOneOutboxEvent event) {
+        ProducerRecord<Long, String> record = new ProducerRecord<>(event.getTopic(), event.getRecordKey(), event.getPayload());
+        if (event.getPayload() != null) {
+            record.headers().add(AbstractJavaTypeMapper.DEFAULT_CLASSID_FIELD_NAME, TYPE_ID);
+        }
+        return record;
+    }
+
+    private static class Batch {
+
+        private final boolean full;
+
+        private final int failures;
+
+        private Batch(boolean full, int failures) {
+            this.full = full;
+            this.failures = failures;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package morozov.vu.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An append-only, memory-mapped file of spooled records.
+ * <p>
+ * The file starts with a header holding the write position (end of the last complete entry) and the read position (end
+ * of the last entry replayed into Kafka), followed by length-prefixed {@link SpooledRecord} entries. Both positions are
+ * only moved after the data they cover is complete, so a segment can be reopened after a restart.
+ */
+class SpoolSegment implements AutoCloseable {
+
+    static final String FILE_SUFFIX = ".spool";
+
+    private static final int WRITE_POSITION_OFFSET = 0;
+    private static final int READ_POSITION_OFFSET = 4;
+    private static final int HEADER_SIZE = 8;
+
+    private final long sequence;
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+
+    private SpoolSegment(long sequence, Path path, FileChannel channel, MappedByteBuffer buffer) {
+        this.sequence = sequence;
+        this.path = path;
+        this.channel = channel;
+        this.buffer = buffer;
+    }
+
+    static SpoolSegment create(Path directory, long sequence, int size) throws IOException {
+        Path path = directory.resolve(String.format("%020d%s", sequence, FILE_SUFFIX));
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        buffer.putInt(WRITE_POSITION_OFFSET, HEADER_SIZE);
+        buffer.putInt(READ_POSITION_OFFSET, HEADER_SIZE);
+        return new SpoolSegment(sequence, path, channel, buffer);
+    }
+
+    static SpoolSegment open(Path path) throws IOException {
+        String fileName = path.getFileName().toString();
+        long sequence = Long.parseLong(fileName.substring(0, fileName.length() - FILE_SUFFIX.length()));
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        return new SpoolSegment(sequence, path, channel, buffer);
+    }
+
+    long getSequence() {
+        return sequence;
+    }
+
+    int getWritePosition() {
+        return buffer.getInt(WRITE_POSITION_OFFSET);
+    }
+
+    int getReadPosition() {
+        return buffer.getInt(READ_POSITION_OFFSET);
+    }
+
+    int getPendingBytes() {
+        return getWritePosition() - getReadPosition();
+    }
+
+    static int entrySize(byte[] entry) {
+        return Integer.BYTES + entry.length;
+    }
+
+    /**
+     * Get the maximum size of the encoded records an empty segment can hold.
+     *
+     * @param size the size of the segment file.
+     * @return the maximum size of an entry.
+     */
+    static int maxEntryLength(int size) {
+        return size - HEADER_SIZE - Integer.BYTES;
+    }
+
+    /**
+     * Append an encoded record.
+     *
+     * @param entry the encoded record.
+     * @param sync whether to force the change to the storage device.
+     * @return {@code false} if the segment has no room left for the entry.
+     */
+    boolean append(byte[] entry, boolean sync) {
+        int position = getWritePosition();
+        if (position + entrySize(entry) > buffer.capacity()) {
+            return false;
+        }
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(position);
+        slice.putInt(entry.length);
+        slice.put(entry);
+        buffer.putInt(WRITE_POSITION_OFFSET, slice.position());
+        if (sync) {
+            buffer.force();
+        }
+        return true;
+    }
+
+    /**
+     * Read the entry starting at the given position, which must be below the write position.
+     *
+     * @param position the position of the entry.
+     * @return the encoded record.
+     */
+    byte[] read(int position) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(position);
+        byte[] entry = new byte[slice.getInt()];
+        slice.get(entry);
+        return entry;
+    }
+
+    void markRead(int position) {
+        buffer.putInt(READ_POSITION_OFFSET, position);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    void delete() throws IOException {
+        close();
+        Files.deleteIfExists(path);
+    }
+
+    @Override
+    public String toString() {
+        return "SpoolSegment{" + path + "}";
+    }
+}
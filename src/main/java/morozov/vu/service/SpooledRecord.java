@@ -0,0 +1,91 @@
+package morozov.vu.service;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+
+/**
+ * An already serialized record, as stored in a {@link SpoolSegment}.
+ * <p>
+ * Entry layout: topic, key and value, each as an {@code int} length (-1 for {@code null}) followed by the bytes, then
+ * the number of headers and each header name and value in the same format.
+ */
+class SpooledRecord {
+
+    private final String topic;
+    private final byte[] key;
+    private final byte[] value;
+    private final Headers headers;
+
+    SpooledRecord(String topic, byte[] key, byte[] value, Headers headers) {
+        this.topic = topic;
+        this.key = key;
+        this.value = value;
+        this.headers = headers;
+    }
+
+    String getTopic() {
+        return topic;
+    }
+
+    ProducerRecord<byte[], byte[]> toProducerRecord() {
+        return new ProducerRecord<>(topic, null, key, value, headers);
+    }
+
+    byte[] encode() {
+        byte[] topicBytes = topic.getBytes(StandardCharsets.UTF_8);
+        int size = sizeOf(topicBytes) + sizeOf(key) + sizeOf(value) + Integer.BYTES;
+        for (Header header : headers) {
+            size += sizeOf(header.key().getBytes(StandardCharsets.UTF_8)) + sizeOf(header.value());
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        put(buffer, topicBytes);
+        put(buffer, key);
+        put(buffer, value);
+        buffer.putInt(headers.toArray().length);
+        for (Header header : headers) {
+            put(buffer, header.key().getBytes(StandardCharsets.UTF_8));
+            put(buffer, header.value());
+        }
+        return buffer.array();
+    }
+
+    static SpooledRecord decode(byte[] entry) {
+        ByteBuffer buffer = ByteBuffer.wrap(entry);
+        String topic = new String(get(buffer), StandardCharsets.UTF_8);
+        byte[] key = get(buffer);
+        byte[] value = get(buffer);
+        int headerCount = buffer.getInt();
+        Headers headers = new RecordHeaders();
+        for (int i = 0; i < headerCount; i++) {
+            headers.add(new String(get(buffer), StandardCharsets.UTF_8), get(buffer));
+        }
+        return new SpooledRecord(topic, key, value, headers);
+    }
+
+    private static int sizeOf(byte[] bytes) {
+        return Integer.BYTES + (bytes != null ? bytes.length : 0);
+    }
+
+    private static void put(ByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+    }
+
+    private static byte[] get(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+}
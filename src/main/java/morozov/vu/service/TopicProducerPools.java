@@ -0,0 +1,149 @@
+package morozov.vu.service;
+
+import io.micrometer.core.instrument.binder.kafka.KafkaClientMetrics;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import morozov.vu.config.KafkaProperties;
+import morozov.vu.management.KafkaPublishMetersService;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+
+/**
+ * Resolves the {@link KafkaProducerPool} a topic is published with.
+ * <p>
+ * Each topic with producer overrides under {@code kafka.topics.<name>.producer} gets its own pool, so it can trade
+ * latency for throughput independently. All other topics share the pool built from the common {@code kafka.producer}
+ * properties. Transactional publishes use a separate pool per profile. The client metrics of every producer are bridged
+ * to the meter registry.
+ */
+public class TopicProducerPools<K, V> implements AutoCloseable {
+
+    public static final String DEFAULT_PROFILE = "default";
+
+    private final KafkaProperties kafkaProperties;
+
+    private final KafkaPublishMetersService metersService;
+
+    private final Map<String, Object> overrides;
+
+    private final ConcurrentMap<String, KafkaProducerPool<K, V>> pools = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, KafkaTransactionalProducerPool<K, V>> transactionalPools = new ConcurrentHashMap<>();
+
+    private final List<KafkaClientMetrics> clientMetrics = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param kafkaProperties the Kafka properties.
+     * @param metersService the service the producer metrics are bound with.
+     * @param overrides producer properties forced on every profile, e.g. the value serializer.
+     */
+    public TopicProducerPools(KafkaProperties kafkaProperties, KafkaPublishMetersService metersService, Map<String, Object> overrides) {
+        this.kafkaProperties = kafkaProperties;
+        this.metersService = metersService;
+        this.overrides = new HashMap<>(overrides);
+    }
+
+    public KafkaProducerPool<K, V> forTopic(String topic) {
+        return pools.computeIfAbsent(profileOf(topic), this::createPool);
+    }
+
+    public Producer<K, V> forRecord(String topic, K key) {
+        return forTopic(topic).forKey(key);
+    }
+
+    /**
+     * Get the transactional pool of a topic's profile, creating it on first use.
+     * <p>
+     * Its members are idempotent and get the {@code transactional.id}
+     * {@code <kafka.transactions.transactional-id-prefix>-<profile>-<index>}.
+     *
+     * @param topic the topic name.
+     * @return the transactional pool for the topic.
+     */
+    public KafkaTransactionalProducerPool<K, V> forTransaction(String topic) {
+        String profile = profileOf(topic);
+        KafkaTransactionalProducerPool<K, V> pool = transactionalPools.get(profile);
+        if (pool != null) {
+            return pool;
+        }
+        // Created outside of the map, whose bins must not be locked while initializing transactions waits on the broker,
+        // but by one thread at a time: a second pool initializing the same transactional ids would fence the first.
+        synchronized (transactionalPools) {
+            pool = transactionalPools.get(profile);
+            if (pool == null) {
+                pool = createTransactionalPool(profile);
+                transactionalPools.put(profile, pool);
+            }
+            return pool;
+        }
+    }
+
+    /**
+     * Get the name of the producer profile used for a topic.
+     *
+     * @param topic the topic name.
+     * @return the topic name if it has its own producer properties, {@link #DEFAULT_PROFILE} otherwise.
+     */
+    public String profileOf(String topic) {
+        KafkaProperties.Topic topicProperties = kafkaProperties.getTopics().get(topic);
+        if (topicProperties == null || topicProperties.getProducer().isEmpty()) {
+            return DEFAULT_PROFILE;
+        }
+        return topic;
+    }
+
+    public Map<String, KafkaProducerPool<K, V>> getPools() {
+        return pools;
+    }
+
+    @Override
+    public void close() {
+        clientMetrics.forEach(KafkaClientMetrics::close);
+        clientMetrics.clear();
+        pools.values().forEach(KafkaProducerPool::close);
+        pools.clear();
+        transactionalPools.values().forEach(KafkaTransactionalProducerPool::close);
+        transactionalPools.clear();
+    }
+
+    private KafkaProducerPool<K, V> createPool(String profile) {
+        KafkaProducerPool<K, V> pool = new KafkaProducerPool<>(profileProps(profile), kafkaProperties.getProducerPool().getSize());
+        pool.getProducers().forEach(producer -> clientMetrics.add(metersService.bindClientMetrics(producer, profile)));
+        return pool;
+    }
+
+    private KafkaTransactionalProducerPool<K, V> createTransactionalPool(String profile) {
+        Map<String, Object> props = profileProps(profile);
+        props.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, true);
+        String transactionalIdPrefix = kafkaProperties.getTransactions().getTransactionalIdPrefix() + "-" + profile + "-";
+        return new KafkaTransactionalProducerPool<>(
+            kafkaProperties.getProducerPool().getSize(),
+            index -> {
+                Map<String, Object> memberProps = KafkaProducerPool.memberProps(props, index);
+                memberProps.put(ProducerConfig.TRANSACTIONAL_ID_CONFIG, transactionalIdPrefix + index);
+                Producer<K, V> producer = new KafkaProducer<>(memberProps);
+                try {
+                    producer.initTransactions();
+                } catch (RuntimeException e) {
+                    producer.close();
+                    throw e;
+                }
+                clientMetrics.add(metersService.bindClientMetrics(producer, profile));
+                return producer;
+            }
+        );
+    }
+
+    private Map<String, Object> profileProps(String profile) {
+        Map<String, Object> props = DEFAULT_PROFILE.equals(profile)
+            ? kafkaProperties.getProducerProps()
+            : kafkaProperties.getProducerProps(profile);
+        props.putAll(overrides);
+        return props;
+    }
+}
@@ -1,21 +1,63 @@
 package morozov.vu.web.rest;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+import javax.annotation.PreDestroy;
+import javax.servlet.http.HttpServletRequest;
 import morozov.vu.config.KafkaProperties;
+import morozov.vu.management.KafkaPublishMetersService;
+import morozov.vu.service.JsonProjection;
+import morozov.vu.service.KafkaAdmissionController;
+import morozov.vu.service.KafkaConsumerHub;
+import morozov.vu.service.KafkaOverloadedException;
+import morozov.vu.service.KafkaRangeReader;
+import morozov.vu.service.KafkaRecordFilter;
+import morozov.vu.service.KafkaSpool;
+import morozov.vu.service.KafkaSubscriber;
+import morozov.vu.service.KafkaSubscription;
+import morozov.vu.service.PartitionOffsets;
+import morozov.vu.service.TopicProducerPools;
+import morozov.vu.web.rest.errors.BadRequestAlertException;
+import morozov.vu.web.rest.errors.KafkaPublishTimeoutException;
+import morozov.vu.web.rest.errors.KafkaReadTimeoutException;
+import morozov.vu.web.rest.errors.KafkaTransactionAbortedException;
+import morozov.vu.web.rest.vm.PublishRecordVM;
+import morozov.vu.web.rest.vm.ReadPageVM;
+import morozov.vu.web.rest.vm.ReadRecordVM;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
-import org.apache.kafka.clients.consumer.ConsumerRecords;
-import org.apache.kafka.clients.consumer.KafkaConsumer;
-import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.clients.producer.ProducerRecord;
 import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.Serializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.apache.kafka.common.utils.Utils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
@@ -23,55 +65,728 @@ import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 @RequestMapping("/api/producer-kafka")
 public class ProducerKafkaResource {
 
+    private static final String ENTITY_NAME = "producerKafka";
+
+    private static final String LAST_EVENT_ID_HEADER = "Last-Event-ID";
+
+    private static final int MAX_REPORTED_ERRORS = 10;
+
+    /**
+     * Request parameters of {@code /consume} which are not consumer properties.
+     */
+    private static final Set<String> SUBSCRIPTION_PARAMS = Set.of(
+        "topic",
+        "frame",
+        "frameMaxRecords",
+        "frameMaxBytes",
+        "frameLingerMs",
+        "keyPrefix",
+        "keyRegex",
+        "header",
+        "field",
+        "replay",
+        "overflow"
+    );
+
+    private static final StringSerializer STRING_SERIALIZER = new StringSerializer();
+    private static final ByteArraySerializer BYTE_ARRAY_SERIALIZER = new ByteArraySerializer();
+
     private final Logger log = LoggerFactory.getLogger(ProducerKafkaResource.class);
 
     private final KafkaProperties kafkaProperties;
-    private KafkaProducer<String, String> producer;
-    private ExecutorService sseExecutorService = Executors.newCachedThreadPool();
+    private final KafkaAdmissionController admissionController;
+    private final KafkaPublishMetersService metersService;
+    private final KafkaSpool spool;
+    private final TopicProducerPools<String, String> producers;
+    private final TopicProducerPools<String, byte[]> binaryProducers;
+    private final KafkaConsumerHub consumerHub;
+    private final KafkaRangeReader rangeReader;
 
-    public ProducerKafkaResource(KafkaProperties kafkaProperties) {
+    public ProducerKafkaResource(
+        KafkaProperties kafkaProperties,
+        KafkaAdmissionController admissionController,
+        KafkaPublishMetersService metersService,
+        KafkaSpool spool,
+        KafkaConsumerHub consumerHub,
+        KafkaRangeReader rangeReader
+    ) {
         this.kafkaProperties = kafkaProperties;
-        this.producer = new KafkaProducer<>(kafkaProperties.getProducerProps());
+        this.admissionController = admissionController;
+        this.metersService = metersService;
+        this.spool = spool;
+        this.consumerHub = consumerHub;
+        this.rangeReader = rangeReader;
+        this.producers = new TopicProducerPools<>(kafkaProperties, metersService, Collections.emptyMap());
+        this.binaryProducers =
+            new TopicProducerPools<>(
+                kafkaProperties,
+                metersService,
+                Collections.singletonMap(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class.getName())
+            );
+    }
+
+    @PreDestroy
+    public void destroy() {
+        producers.close();
+        binaryProducers.close();
     }
 
     @PostMapping("/publish/{topic}")
     public PublishResult publish(@PathVariable String topic, @RequestParam String message, @RequestParam(required = false) String key)
         throws ExecutionException, InterruptedException {
         log.debug("REST request to send to Kafka topic {} with key {} the message : {}", topic, key, message);
-        RecordMetadata metadata = producer.send(new ProducerRecord<>(topic, key, message)).get();
-        return new PublishResult(metadata.topic(), metadata.partition(), metadata.offset(), Instant.ofEpochMilli(metadata.timestamp()));
+        KafkaAdmissionController.Permit permit = admissionController.acquire(producers.profileOf(topic), 1, sizeOf(key, message));
+        try {
+            return send(producers, STRING_SERIALIZER, new ProducerRecord<>(topic, key, message)).get();
+        } finally {
+            permit.release();
+        }
+    }
+
+    /**
+     * {@code POST  /publish/:topic} : Publish the raw request body as the message value.
+     * <p>
+     * The body is sent as is through a {@link ByteArraySerializer} producer, without any String conversion, and is not
+     * limited by the URL length.
+     *
+     * @param topic the topic to publish to.
+     * @param payload the message value.
+     * @param key the optional message key.
+     * @return the {@link PublishResult}.
+     * @throws ExecutionException if the broker rejects the message.
+     * @throws InterruptedException if interrupted while waiting for the acknowledgement.
+     */
+    @PostMapping(
+        value = "/publish/{topic}",
+        params = "!message",
+        consumes = { MediaType.APPLICATION_OCTET_STREAM_VALUE, MediaType.APPLICATION_JSON_VALUE }
+    )
+    public PublishResult publishBinary(@PathVariable String topic, @RequestBody byte[] payload, @RequestParam(required = false) String key)
+        throws ExecutionException, InterruptedException {
+        log.debug("REST request to send to Kafka topic {} with key {} a binary message of {} bytes", topic, key, payload.length);
+        KafkaAdmissionController.Permit permit = admissionController.acquire(
+            binaryProducers.profileOf(topic),
+            1,
+            sizeOf(key, null) + payload.length
+        );
+        try {
+            return send(binaryProducers, BYTE_ARRAY_SERIALIZER, new ProducerRecord<>(topic, key, payload)).get();
+        } finally {
+            permit.release();
+        }
+    }
+
+    /**
+     * {@code POST  /publish/:topic/async} : Publish a message without holding a request thread until the broker acknowledges it.
+     * <p>
+     * The result is completed from the producer callback, or with {@code 504 (Gateway Timeout)} once
+     * {@code kafka.publish.timeout} elapses.
+     *
+     * @param topic the topic to publish to.
+     * @param message the message value.
+     * @param key the optional message key.
+     * @return the future {@link PublishResult}.
+     */
+    @PostMapping("/publish/{topic}/async")
+    public CompletableFuture<PublishResult> publishAsync(
+        @PathVariable String topic,
+        @RequestParam String message,
+        @RequestParam(required = false) String key
+    ) {
+        log.debug("REST request to asynchronously send to Kafka topic {} with key {} the message : {}", topic, key, message);
+        KafkaAdmissionController.Permit permit = admissionController.acquire(producers.profileOf(topic), 1, sizeOf(key, message));
+        CompletableFuture<PublishResult> result = trySend(producers, STRING_SERIALIZER, new ProducerRecord<>(topic, key, message));
+        result.whenComplete((metadata, ex) -> permit.release());
+        return withTimeout(result, topic);
+    }
+
+    /**
+     * {@code POST  /publish/:topic/batch} : Publish several records in a single call.
+     * <p>
+     * Every record is handed to the producer before any acknowledgement is awaited, so the whole batch costs a single
+     * wait instead of one per record.
+     *
+     * @param topic the topic to publish to.
+     * @param records the records to publish.
+     * @return the future per-record results, in request order.
+     */
+    @PostMapping("/publish/{topic}/batch")
+    public CompletableFuture<List<BatchRecordResult>> publishBatch(@PathVariable String topic, @RequestBody List<PublishRecordVM> records) {
+        log.debug("REST request to send a batch of {} records to Kafka topic {}", records.size(), topic);
+        List<ProducerRecord<String, String>> producerRecords = toProducerRecords(topic, records);
+        long batchSize = records.stream().mapToLong(record -> sizeOf(record.getKey(), record.getValue())).sum();
+        KafkaAdmissionController.Permit permit = admissionController.acquire(producers.profileOf(topic), records.size(), batchSize);
+        CompletableFuture<List<BatchRecordResult>> batch;
+        try {
+            List<CompletableFuture<BatchRecordResult>> results = new ArrayList<>(records.size());
+            for (int i = 0; i < producerRecords.size(); i++) {
+                int index = i;
+                results.add(
+                    trySend(producers, STRING_SERIALIZER, producerRecords.get(i))
+                        .handle((result, ex) -> BatchRecordResult.of(index, topic, result, ex))
+                );
+            }
+            batch =
+                CompletableFuture
+                    .allOf(results.toArray(new CompletableFuture<?>[0]))
+                    .thenApply(done -> results.stream().map(CompletableFuture::join).collect(Collectors.toList()));
+        } catch (RuntimeException e) {
+            permit.release();
+            throw e;
+        }
+        batch.whenComplete((result, ex) -> permit.release());
+        return withTimeout(batch, topic);
     }
 
+    /**
+     * {@code POST  /publish/:topic/batch?transactional=true} : Publish several records atomically.
+     * <p>
+     * The records are sent in a single Kafka transaction of an idempotent producer, committed once, so consumers
+     * reading with {@code isolation.level=read_committed} see either all of them or none. The batch is rejected while
+     * the spool is active, since replaying it from the spool would not be atomic.
+     *
+     * @param topic the topic to publish to.
+     * @param records the records to publish.
+     * @return the per-record results, in request order.
+     * @throws ExecutionException if a record of the committed transaction has no metadata.
+     * @throws InterruptedException if interrupted while waiting for a transactional producer.
+     */
+    @PostMapping(value = "/publish/{topic}/batch", params = "transactional=true")
+    public List<BatchRecordResult> publishTransactionalBatch(@PathVariable String topic, @RequestBody List<PublishRecordVM> records)
+        throws ExecutionException, InterruptedException {
+        log.debug("REST request to send a transactional batch of {} records to Kafka topic {}", records.size(), topic);
+        List<ProducerRecord<String, String>> producerRecords = toProducerRecords(topic, records);
+        long batchSize = records.stream().mapToLong(record -> sizeOf(record.getKey(), record.getValue())).sum();
+        KafkaAdmissionController.Permit permit = admissionController.acquire(producers.profileOf(topic), records.size(), batchSize);
+        if (!spool.tryAcquirePermission(topic)) {
+            permit.release();
+            throw new KafkaOverloadedException(KafkaSpool.SPOOL_PRODUCER, kafkaProperties.getAdmission().getRetryAfter());
+        }
+        Duration timeout = kafkaProperties.getPublish().getTimeout();
+        long start = System.nanoTime();
+        boolean recorded = false;
+        try {
+            List<Future<RecordMetadata>> sent = producers
+                .forTransaction(topic)
+                .executeInTransaction(
+                    timeout,
+                    producer -> producerRecords.stream().map(producer::send).collect(Collectors.toList())
+                );
+            metersService.recordAck(topic, System.nanoTime() - start, null);
+            spool.recordOutcome(System.nanoTime() - start, null);
+            recorded = true;
+            // Every future is complete once the transaction is committed.
+            List<BatchRecordResult> results = new ArrayList<>(sent.size());
+            for (int i = 0; i < sent.size(); i++) {
+                results.add(BatchRecordResult.success(i, PublishResult.of(sent.get(i).get())));
+            }
+            return results;
+        } catch (TimeoutException e) {
+            throw new KafkaPublishTimeoutException(topic, timeout);
+        } catch (KafkaException e) {
+            metersService.recordAck(topic, System.nanoTime() - start, e);
+            spool.recordOutcome(System.nanoTime() - start, e);
+            recorded = true;
+            throw new KafkaTransactionAbortedException(topic, e);
+        } finally {
+            if (!recorded) {
+                // Failed before calling Kafka, e.g. waiting for a transactional producer.
+                spool.releasePermission();
+            }
+            permit.release();
+        }
+    }
+
+    /**
+     * {@code POST  /publish/:topic/stream} : Stream a newline delimited body into the topic, one record per line.
+     * <p>
+     * Lines are sent as soon as they are read. Reading pauses while more than {@code kafka.publish.stream-max-in-flight}
+     * of unacknowledged data is outstanding, so the body is never buffered as a whole, and the stream fails with
+     * {@code 504 (Gateway Timeout)} if nothing is acknowledged for {@code kafka.publish.timeout}. Since the stream has
+     * its own back-pressure, admission control only rejects it upfront when the producer is already overloaded.
+     * <p>
+     * Records appended to the spool while Kafka is unavailable are counted as {@code spooled}, they are not
+     * acknowledged yet.
+     *
+     * @param topic the topic to publish to.
+     * @param key the optional key applied to every record.
+     * @param request the request whose body is streamed.
+     * @return the summary of acknowledged, spooled and failed records.
+     * @throws IOException if the request body cannot be read.
+     * @throws InterruptedException if interrupted while waiting for in-flight records.
+     */
+    @PostMapping(value = "/publish/{topic}/stream", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    public IngestSummary publishStream(@PathVariable String topic, @RequestParam(required = false) String key, HttpServletRequest request)
+        throws IOException, InterruptedException {
+        log.debug("REST request to stream records to Kafka topic {} with key {}", topic, key);
+        String profile = binaryProducers.profileOf(topic);
+        admissionController.check(profile);
+        Duration timeout = kafkaProperties.getPublish().getTimeout();
+        int maxInFlight = (int) Math.min(kafkaProperties.getPublish().getStreamMaxInFlight().toBytes(), Integer.MAX_VALUE);
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        IngestSummary summary = new IngestSummary();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(request.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                // Encoded once, as the StringSerializer would, so that the in-flight data is counted in bytes.
+                byte[] value = line.getBytes(StandardCharsets.UTF_8);
+                int permits = Math.min(value.length, maxInFlight);
+                if (!inFlight.tryAcquire(permits, timeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                    throw new KafkaPublishTimeoutException(topic, timeout);
+                }
+                KafkaAdmissionController.Permit permit = admissionController.track(profile, 1, permits);
+                trySend(binaryProducers, BYTE_ARRAY_SERIALIZER, new ProducerRecord<>(topic, key, value))
+                    .whenComplete((result, ex) -> {
+                        summary.record(result, ex);
+                        permit.release();
+                        inFlight.release(permits);
+                    });
+            }
+        }
+        if (!inFlight.tryAcquire(maxInFlight, timeout.toMillis(), TimeUnit.MILLISECONDS)) {
+            throw new KafkaPublishTimeoutException(topic, timeout);
+        }
+        return summary;
+    }
+
+    /**
+     * {@code GET  /consume} : Stream the records of some topics as server-sent events.
+     * <p>
+     * Subscribers asking for the same topics with the same consumer parameters share a single consumer, each one
+     * receiving every record polled after it joined.
+     * <p>
+     * By default every record value is sent as its own event. With {@code frame=json} or {@code frame=ndjson}, records
+     * are packed into a single event per batch, respectively as a JSON array of the values, which must then be JSON
+     * documents, or as one data line per value. Batches are bounded by {@code frameMaxRecords} and
+     * {@code frameMaxBytes}, and wait at most {@code frameLingerMs} to fill up.
+     * <p>
+     * The last event of each batch of records, and every keep-alive comment, carries as id the offset of the last
+     * record sent from each partition, as {@code topic/partition/offset} entries. A client reconnecting with that id as
+     * {@code Last-Event-ID} header resumes right after those records.
+     * <p>
+     * Records can be filtered on their key, with {@code keyPrefix} and {@code keyRegex}, and on their headers, with
+     * {@code header=name:value} parameters, before being queued for the subscriber. With {@code field} parameters, JSON
+     * pointers such as {@code /customer/name}, only those fields of the values are sent, as an object with a member per
+     * field named after its pointer without the leading {@code /}; records whose value is not JSON are then skipped.
+     * <p>
+     * With {@code replay}, and no {@code Last-Event-ID}, the most recent records of the topics kept in memory, see
+     * {@code kafka.topics.<topic>.replay}, are sent before the live ones.
+     * <p>
+     * A subscriber falling more than {@code kafka.consume.subscriber-queue-size} records or
+     * {@code kafka.consume.subscriber-queue-bytes} behind is handled according to {@code overflow}: {@code drop-oldest}
+     * or {@code drop-newest} skip records, {@code disconnect} ends the stream.
+     *
+     * @param topics the topics to consume.
+     * @param frame the framing of the events: {@code record}, {@code json} or {@code ndjson}.
+     * @param frameMaxRecords the maximum number of records per event, defaults to {@code kafka.consume.frame-max-records}.
+     * @param frameMaxBytes the maximum size of the records of an event, defaults to {@code kafka.consume.frame-max-bytes}.
+     * @param frameLingerMs the maximum time records wait for an event to fill up, defaults to {@code kafka.consume.frame-linger}.
+     * @param keyPrefix the prefix of the keys of the records to send.
+     * @param keyRegex the regular expression matching the keys of the records to send.
+     * @param headers the {@code name:value} headers the records to send must have.
+     * @param fields the JSON pointers of the fields of the values to send.
+     * @param replay the number of recent records to send first.
+     * @param overflow what to do when the subscriber falls too far behind, defaults to {@code kafka.consume.overflow-policy}.
+     * @param lastEventId the id of the last event received before reconnecting.
+     * @param consumerParams the other parameters, as consumer properties overriding {@code kafka.consumer}.
+     * @return the record values as server-sent events.
+     */
     @GetMapping("/consume")
-    public SseEmitter consume(@RequestParam("topic") List<String> topics, @RequestParam Map<String, String> consumerParams) {
+    public SseEmitter consume(
+        @RequestParam("topic") List<String> topics,
+        @RequestParam(defaultValue = "record") String frame,
+        @RequestParam(required = false) Integer frameMaxRecords,
+        @RequestParam(required = false) Long frameMaxBytes,
+        @RequestParam(required = false) Long frameLingerMs,
+        @RequestParam(required = false) String keyPrefix,
+        @RequestParam(required = false) String keyRegex,
+        @RequestParam(value = "header", required = false) List<String> headers,
+        @RequestParam(value = "field", required = false) List<String> fields,
+        @RequestParam(defaultValue = "0") int replay,
+        @RequestParam(required = false) String overflow,
+        @RequestHeader(value = LAST_EVENT_ID_HEADER, required = false) String lastEventId,
+        @RequestParam Map<String, String> consumerParams
+    ) {
         log.debug("REST request to consume records from Kafka topics {}", topics);
-        Map<String, Object> consumerProps = kafkaProperties.getConsumerProps();
-        consumerProps.putAll(consumerParams);
-        consumerProps.remove("topic");
+        Map<String, String> params = new HashMap<>(consumerParams);
+        params.keySet().removeAll(SUBSCRIPTION_PARAMS);
+        SseFrame sseFrame = SseFrame.of(frame);
+        KafkaSubscription.Batching batching = KafkaSubscription.Batching.UNBOUNDED;
+        if (sseFrame != SseFrame.RECORD) {
+            KafkaProperties.Consume properties = kafkaProperties.getConsume();
+            try {
+                batching =
+                    new KafkaSubscription.Batching(
+                        frameMaxRecords != null ? frameMaxRecords : properties.getFrameMaxRecords(),
+                        frameMaxBytes != null ? frameMaxBytes : properties.getFrameMaxBytes().toBytes(),
+                        frameLingerMs != null ? Duration.ofMillis(frameLingerMs) : properties.getFrameLinger()
+                    );
+            } catch (IllegalArgumentException e) {
+                throw new BadRequestAlertException(e.getMessage(), ENTITY_NAME, "frameinvalid");
+            }
+        }
+
+        KafkaRecordFilter filter;
+        JsonProjection projection;
+        try {
+            filter = KafkaRecordFilter.of(keyPrefix, keyRegex, KafkaRecordFilter.parseHeaders(headers));
+            projection = fields != null && !fields.isEmpty() ? JsonProjection.compile(fields) : null;
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestAlertException(e.getMessage(), ENTITY_NAME, "filterinvalid");
+        }
+
+        PartitionOffsets lastOffsets = new PartitionOffsets();
+        PartitionOffsets startOffsets = new PartitionOffsets();
+        try {
+            PartitionOffsets
+                .parse(lastEventId)
+                .asMap()
+                .forEach((partition, offset) -> {
+                    if (topics.contains(partition.topic())) {
+                        lastOffsets.put(partition, offset);
+                        startOffsets.put(partition, offset + 1);
+                    }
+                });
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestAlertException(e.getMessage(), ENTITY_NAME, "lasteventidinvalid");
+        }
+
+        if (replay < 0) {
+            throw new BadRequestAlertException("Replay must not be negative, was " + replay, ENTITY_NAME, "replayinvalid");
+        }
+
+        KafkaSubscription.OverflowPolicy overflowPolicy = null;
+        if (overflow != null) {
+            try {
+                overflowPolicy = KafkaSubscription.OverflowPolicy.of(overflow);
+            } catch (IllegalArgumentException e) {
+                throw new BadRequestAlertException(e.getMessage(), ENTITY_NAME, "overflowinvalid");
+            }
+        }
 
         SseEmitter emitter = new SseEmitter(0L);
-        sseExecutorService.execute(() -> {
-            KafkaConsumer<String, String> consumer = new KafkaConsumer<>(consumerProps);
-            emitter.onCompletion(consumer::close);
-            consumer.subscribe(topics);
-            boolean exitLoop = false;
-            while (!exitLoop) {
-                try {
-                    ConsumerRecords<String, String> records = consumer.poll(Duration.ofSeconds(5));
-                    for (ConsumerRecord<String, String> record : records) {
-                        emitter.send(record.value());
+        KafkaSubscription subscription = consumerHub.subscribe(
+            topics,
+            params,
+            startOffsets,
+            new SseSubscriber(emitter, sseFrame, projection, lastOffsets),
+            batching,
+            filter,
+            startOffsets.isEmpty() ? replay : 0,
+            overflowPolicy
+        );
+        emitter.onCompletion(subscription::cancel);
+        emitter.onTimeout(subscription::cancel);
+        emitter.onError(ex -> subscription.cancel());
+        return emitter;
+    }
+
+    /**
+     * {@code GET  /read} : Read a page of the records of a topic between offsets or timestamps.
+     * <p>
+     * Lower bounds are inclusive and upper bounds exclusive. Offset bounds apply to every partition, timestamp bounds
+     * are resolved to offsets in each partition. Without upper bound, partitions are read up to their end at the time of
+     * the request. Records of the different partitions are interleaved, each partition in offset order.
+     * <p>
+     * The next page is read by repeating the request with the {@code cursor} of the page, until it is {@code null}.
+     *
+     * @param topic the topic to read.
+     * @param fromOffset the offset of the first records to read.
+     * @param toOffset the offset following the last records to read.
+     * @param from the timestamp of the first records to read, as an ISO-8601 instant.
+     * @param to the timestamp following the one of the last records to read, as an ISO-8601 instant.
+     * @param cursor the cursor of the previous page.
+     * @param limit the maximum number of records of the page, at most {@code kafka.read.max-limit}.
+     * @return the page of records.
+     * @throws KafkaReadTimeoutException if the metadata of the topic could not be read within {@code kafka.read.timeout}.
+     */
+    @GetMapping("/read")
+    public ReadPageVM read(
+        @RequestParam String topic,
+        @RequestParam(required = false) Long fromOffset,
+        @RequestParam(required = false) Long toOffset,
+        @RequestParam(required = false) Instant from,
+        @RequestParam(required = false) Instant to,
+        @RequestParam(required = false) String cursor,
+        @RequestParam(defaultValue = "100") int limit
+    ) throws InterruptedException {
+        log.debug("REST request to read records from Kafka topic {}", topic);
+        int maxLimit = kafkaProperties.getRead().getMaxLimit();
+        if (limit < 1 || limit > maxLimit) {
+            throw new BadRequestAlertException("Limit must be between 1 and " + maxLimit, ENTITY_NAME, "limitinvalid");
+        }
+        if ((fromOffset != null && from != null) || (toOffset != null && to != null)) {
+            throw new BadRequestAlertException("Bounds must be either offsets or timestamps", ENTITY_NAME, "boundsinvalid");
+        }
+        PartitionOffsets position = new PartitionOffsets();
+        try {
+            PartitionOffsets
+                .parse(cursor)
+                .asMap()
+                .forEach((partition, offset) -> {
+                    if (partition.topic().equals(topic)) {
+                        position.put(partition, offset);
+                    }
+                });
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestAlertException(e.getMessage(), ENTITY_NAME, "cursorinvalid");
+        }
+
+        KafkaRangeReader.Page page;
+        try {
+            page = rangeReader.read(topic, fromOffset, toOffset, from, to, position, limit);
+        } catch (org.apache.kafka.common.errors.TimeoutException e) {
+            throw new KafkaReadTimeoutException(topic, kafkaProperties.getRead().getTimeout());
+        }
+        ReadPageVM result = new ReadPageVM();
+        page.getRecords().forEach(record -> result.getRecords().add(toReadRecord(record)));
+        result.setCursor(page.getNext() != null ? page.getNext().toString() : null);
+        return result;
+    }
+
+    private static ReadRecordVM toReadRecord(ConsumerRecord<byte[], byte[]> record) {
+        ReadRecordVM result = new ReadRecordVM();
+        result.setPartition(record.partition());
+        result.setOffset(record.offset());
+        result.setTimestamp(Instant.ofEpochMilli(record.timestamp()));
+        result.setKey(record.key() != null ? new String(record.key(), StandardCharsets.UTF_8) : null);
+        result.setValue(record.value() != null ? new String(record.value(), StandardCharsets.UTF_8) : null);
+        for (Header header : record.headers()) {
+            result.getHeaders().put(header.key(), header.value() != null ? new String(header.value(), StandardCharsets.UTF_8) : null);
+        }
+        return result;
+    }
+
+    /**
+     * Convert every record of a batch before any is sent or admitted, so that an invalid record rejects the whole batch.
+     */
+    private static List<ProducerRecord<String, String>> toProducerRecords(String topic, List<PublishRecordVM> publishRecords) {
+        List<ProducerRecord<String, String>> records = new ArrayList<>(publishRecords.size());
+        for (PublishRecordVM publishRecord : publishRecords) {
+            if (publishRecord == null) {
+                throw new BadRequestAlertException("A batch must not contain null records", ENTITY_NAME, "recordnull");
+            }
+            records.add(toProducerRecord(topic, publishRecord));
+        }
+        return records;
+    }
+
+    private static ProducerRecord<String, String> toProducerRecord(String topic, PublishRecordVM publishRecord) {
+        ProducerRecord<String, String> record = new ProducerRecord<>(topic, publishRecord.getKey(), publishRecord.getValue());
+        if (publishRecord.getHeaders() != null) {
+            publishRecord
+                .getHeaders()
+                .forEach((name, value) -> record.headers().add(name, value != null ? value.getBytes(StandardCharsets.UTF_8) : null));
+        }
+        return record;
+    }
+
+    /**
+     * Same as {@link #send}, but reports every failure, including a full spool, through the returned future.
+     */
+    private <V> CompletableFuture<PublishResult> trySend(
+        TopicProducerPools<String, V> pools,
+        Serializer<V> valueSerializer,
+        ProducerRecord<String, V> record
+    ) {
+        try {
+            return send(pools, valueSerializer, record);
+        } catch (RuntimeException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+    }
+
+    /**
+     * Send a record with the producer of its topic and key, or append it to the spool while Kafka is unavailable.
+     */
+    private <V> CompletableFuture<PublishResult> send(
+        TopicProducerPools<String, V> pools,
+        Serializer<V> valueSerializer,
+        ProducerRecord<String, V> record
+    ) {
+        if (!spool.tryAcquirePermission(record.topic())) {
+            spool.append(record, STRING_SERIALIZER, valueSerializer);
+            return CompletableFuture.completedFuture(PublishResult.spooled(record.topic()));
+        }
+        CompletableFuture<PublishResult> result = new CompletableFuture<>();
+        long start = System.nanoTime();
+        try {
+            Producer<String, V> producer = pools.forRecord(record.topic(), record.key());
+            producer.send(
+                record,
+                (metadata, exception) -> {
+                    metersService.recordAck(record.topic(), System.nanoTime() - start, exception);
+                    spool.recordOutcome(System.nanoTime() - start, exception);
+                    if (exception != null) {
+                        result.completeExceptionally(exception);
+                    } else {
+                        result.complete(PublishResult.of(metadata));
                     }
-                    emitter.send(SseEmitter.event().comment(""));
-                } catch (Exception ex) {
-                    log.trace("Complete with error {}", ex.getMessage(), ex);
-                    emitter.completeWithError(ex);
-                    exitLoop = true;
                 }
+            );
+            metersService.recordSerialize(record.topic(), System.nanoTime() - start);
+        } catch (RuntimeException ex) {
+            spool.recordOutcome(System.nanoTime() - start, ex);
+            result.completeExceptionally(ex);
+        }
+        return result;
+    }
+
+    /**
+     * Get a copy of the future that fails with {@link KafkaPublishTimeoutException} after {@code kafka.publish.timeout},
+     * leaving the original future to complete when the broker eventually answers. The timeout is cancelled as soon as
+     * the future completes, so that it does not retain the future until it elapses.
+     */
+    private <T> CompletableFuture<T> withTimeout(CompletableFuture<T> future, String topic) {
+        Duration timeout = kafkaProperties.getPublish().getTimeout();
+        CompletableFuture<T> timed = new CompletableFuture<>();
+        future
+            .copy()
+            .orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS)
+            .whenComplete((result, ex) -> {
+                if (ex instanceof TimeoutException) {
+                    timed.completeExceptionally(new KafkaPublishTimeoutException(topic, timeout));
+                } else if (ex != null) {
+                    timed.completeExceptionally(ex);
+                } else {
+                    timed.complete(result);
+                }
+            });
+        return timed;
+    }
+
+    /**
+     * The serialized size of a record, as encoded by the {@link StringSerializer}, so that multi-byte characters are
+     * counted in full against the in-flight limits.
+     */
+    private static long sizeOf(String key, String value) {
+        return (key != null ? Utils.utf8Length(key) : 0) + (value != null ? Utils.utf8Length(value) : 0);
+    }
+
+    /**
+     * Framing of the records sent as server-sent events.
+     */
+    private enum SseFrame {
+        RECORD,
+        JSON,
+        NDJSON;
+
+        private static SseFrame of(String name) {
+            try {
+                return valueOf(name.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new BadRequestAlertException("Unknown frame " + name, ENTITY_NAME, "frameinvalid");
+            }
+        }
+    }
+
+    private class SseSubscriber implements KafkaSubscriber {
+
+        private final SseEmitter emitter;
+
+        private final SseFrame frame;
+
+        private final JsonProjection projection;
+
+        /**
+         * Offset of the last record sent from each partition, the id of the events.
+         */
+        private final PartitionOffsets positions;
+
+        private SseSubscriber(SseEmitter emitter, SseFrame frame, JsonProjection projection, PartitionOffsets positions) {
+            this.emitter = emitter;
+            this.frame = frame;
+            this.projection = projection;
+            this.positions = positions;
+        }
+
+        @Override
+        public void onRecords(List<ConsumerRecord<byte[], byte[]>> records) throws IOException {
+            switch (frame) {
+                case JSON:
+                    StringBuilder array = new StringBuilder("[");
+                    for (ConsumerRecord<byte[], byte[]> record : records) {
+                        advance(record);
+                        byte[] value = valueOf(record);
+                        if (value == null && projection != null) {
+                            continue;
+                        }
+                        if (array.length() > 1) {
+                            array.append(',');
+                        }
+                        array.append(value != null ? new String(value, StandardCharsets.UTF_8) : "null");
+                    }
+                    emitter.send(SseEmitter.event().id(positions.toString()).data(array.append(']').toString()));
+                    break;
+                case NDJSON:
+                    SseEmitter.SseEventBuilder event = SseEmitter.event();
+                    for (ConsumerRecord<byte[], byte[]> record : records) {
+                        advance(record);
+                        byte[] value = valueOf(record);
+                        if (value != null || projection == null) {
+                            event.data(toText(value));
+                        }
+                    }
+                    emitter.send(event.id(positions.toString()));
+                    break;
+                default:
+                    // The id of the partitions is sent once per batch, with its last event: the events before it keep
+                    // the id of the previous batch, so a client reconnecting in between receives them again.
+                    String pending = null;
+                    for (ConsumerRecord<byte[], byte[]> record : records) {
+                        advance(record);
+                        byte[] value = valueOf(record);
+                        if (value != null || projection == null) {
+                            if (pending != null) {
+                                emitter.send(SseEmitter.event().data(pending));
+                            }
+                            pending = toText(value);
+                        }
+                    }
+                    if (pending != null) {
+                        emitter.send(SseEmitter.event().id(positions.toString()).data(pending));
+                    }
             }
-            consumer.close();
+        }
+
+        private void advance(ConsumerRecord<byte[], byte[]> record) {
+            positions.put(new TopicPartition(record.topic(), record.partition()), record.offset());
+        }
+
+        /**
+         * Get the value to send for a record, {@code null} if the record has no value or, with a projection, if its
+         * value is not JSON.
+         */
+        private byte[] valueOf(ConsumerRecord<byte[], byte[]> record) {
+            return projection != null ? projection.project(record.value()) : record.value();
+        }
+
+        private String toText(byte[] value) {
+            return value != null ? new String(value, StandardCharsets.UTF_8) : "";
+        }
+
+        /**
+         * Send a comment, with the id of the partitions so that the records skipped since the last event are not
+         * consumed again on reconnection.
+         */
+        @Override
+        public void onKeepAlive() throws IOException {
+            emitter.send(SseEmitter.event().id(positions.toString()).comment(""));
+        }
+
+        @Override
+        public void onComplete() {
             emitter.complete();
-        });
-        return emitter;
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            log.trace("Complete with error {}", error.getMessage(), error);
+            emitter.completeWithError(error);
+        }
     }
 
     private static class PublishResult {
@@ -80,12 +795,103 @@ public class ProducerKafkaResource {
         public final int partition;
         public final long offset;
         public final Instant timestamp;
+        public final boolean spooled;
 
-        private PublishResult(String topic, int partition, long offset, Instant timestamp) {
+        private PublishResult(String topic, int partition, long offset, Instant timestamp, boolean spooled) {
             this.topic = topic;
             this.partition = partition;
             this.offset = offset;
             this.timestamp = timestamp;
+            this.spooled = spooled;
+        }
+
+        private static PublishResult of(RecordMetadata metadata) {
+            return new PublishResult(
+                metadata.topic(),
+                metadata.partition(),
+                metadata.offset(),
+                Instant.ofEpochMilli(metadata.timestamp()),
+                false
+            );
+        }
+
+        /**
+         * The result of a record accepted by the spool, which has no partition nor offset until it is replayed.
+         */
+        private static PublishResult spooled(String topic) {
+            return new PublishResult(topic, RecordMetadata.UNKNOWN_PARTITION, -1, Instant.now(), true);
+        }
+    }
+
+    private static class BatchRecordResult {
+
+        public final int index;
+        public final String topic;
+        public final Integer partition;
+        public final Long offset;
+        public final Instant timestamp;
+        public final String error;
+
+        private BatchRecordResult(int index, String topic, Integer partition, Long offset, Instant timestamp, String error) {
+            this.index = index;
+            this.topic = topic;
+            this.partition = partition;
+            this.offset = offset;
+            this.timestamp = timestamp;
+            this.error = error;
+        }
+
+        private static BatchRecordResult success(int index, PublishResult result) {
+            return new BatchRecordResult(index, result.topic, result.partition, result.offset, result.timestamp, null);
+        }
+
+        private static BatchRecordResult failure(int index, String topic, Throwable ex) {
+            return new BatchRecordResult(index, topic, null, null, null, ex.getMessage());
+        }
+
+        private static BatchRecordResult of(int index, String topic, PublishResult result, Throwable ex) {
+            return ex == null ? success(index, result) : failure(index, topic, ex);
+        }
+    }
+
+    private static class IngestSummary {
+
+        public long count;
+        public long spooled;
+        public long failed;
+        public final Map<Integer, PartitionRange> partitions = new TreeMap<>();
+        public final List<String> errors = new ArrayList<>();
+
+        private synchronized void record(PublishResult result, Throwable ex) {
+            if (ex != null) {
+                failed++;
+                if (errors.size() < MAX_REPORTED_ERRORS) {
+                    errors.add(ex.getMessage());
+                }
+                return;
+            }
+            if (result.spooled) {
+                spooled++;
+                return;
+            }
+            count++;
+            partitions.computeIfAbsent(result.partition, partition -> new PartitionRange(result.offset)).extend(result.offset);
+        }
+    }
+
+    private static class PartitionRange {
+
+        public long firstOffset;
+        public long lastOffset;
+
+        private PartitionRange(long offset) {
+            this.firstOffset = offset;
+            this.lastOffset = offset;
+        }
+
+        private void extend(long offset) {
+            firstOffset = Math.min(firstOffset, offset);
+            lastOffset = Math.max(lastOffset, offset);
         }
     }
 }
@@ -5,17 +5,23 @@ import java.net.URISyntaxException;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import morozov.vu.config.ApplicationProperties;
 import morozov.vu.domain.ShopOne;
 import morozov.vu.repository.ShopOneRepository;
+import morozov.vu.service.ShopOneBulkService;
+import morozov.vu.service.ShopOneEventPublisher;
 import morozov.vu.web.rest.errors.BadRequestAlertException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
-import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 import tech.jhipster.web.util.HeaderUtil;
 import tech.jhipster.web.util.ResponseUtil;
 
@@ -37,10 +43,20 @@ public class ShopOneResource {
     private final ShopOneRepository shopOneRepository;
 
     @Autowired
-    private KafkaTemplate<Long, ShopOne> kafkaTemplate;
+    private ShopOneEventPublisher shopOneEventPublisher;
 
-    public ShopOneResource(ShopOneRepository shopOneRepository) {
+    private final ShopOneBulkService shopOneBulkService;
+
+    private final ApplicationProperties applicationProperties;
+
+    public ShopOneResource(
+        ShopOneRepository shopOneRepository,
+        ShopOneBulkService shopOneBulkService,
+        ApplicationProperties applicationProperties
+    ) {
         this.shopOneRepository = shopOneRepository;
+        this.shopOneBulkService = shopOneBulkService;
+        this.applicationProperties = applicationProperties;
     }
 
     /**
@@ -57,14 +73,34 @@ public class ShopOneResource {
             throw new BadRequestAlertException("A new shopOne cannot already have an ID", ENTITY_NAME, "idexists");
         }
         ShopOne result = shopOneRepository.save(shopOne);
-        kafkaTemplate.send("topic", shopOne.getId(), shopOne);
-        kafkaTemplate.flush();
+        shopOneEventPublisher.publish(result);
         return ResponseEntity
             .created(new URI("/api/shop-ones/" + result.getId()))
             .headers(HeaderUtil.createEntityCreationAlert(applicationName, true, ENTITY_NAME, result.getId().toString()))
             .body(result);
     }
 
+    /**
+     * {@code POST  /shop-ones/bulk} : Create new shopOnes.
+     *
+     * @param shopOnes the shopOnes to create.
+     * @return the {@link ResponseEntity} with status {@code 201 (Created)} and with body the ids of the new shopOnes, in order,
+     * or with status {@code 400 (Bad Request)} if a shopOne has already an ID or if there are more than {@code application.bulk.max-size}.
+     */
+    @PostMapping("/shop-ones/bulk")
+    public ResponseEntity<List<Long>> createShopOnes(@RequestBody List<ShopOne> shopOnes) {
+        log.debug("REST request to save {} ShopOnes", shopOnes.size());
+        int maxSize = applicationProperties.getBulk().getMaxSize();
+        if (shopOnes.size() > maxSize) {
+            throw new BadRequestAlertException("At most " + maxSize + " shopOnes can be created at once", ENTITY_NAME, "bulktoolarge");
+        }
+        if (shopOnes.stream().anyMatch(shopOne -> shopOne.getId() != null)) {
+            throw new BadRequestAlertException("A new shopOne cannot already have an ID", ENTITY_NAME, "idexists");
+        }
+        List<Long> ids = shopOneBulkService.createAll(shopOnes);
+        return ResponseEntity.status(HttpStatus.CREATED).body(ids);
+    }
+
     /**
      * {@code PUT  /shop-ones/:id} : Updates an existing shopOne.
      *
@@ -91,6 +127,7 @@ public class ShopOneResource {
         }
 
         ShopOne result = shopOneRepository.save(shopOne);
+        shopOneEventPublisher.publishUpdate(result);
         return ResponseEntity
             .ok()
             .headers(HeaderUtil.createEntityUpdateAlert(applicationName, true, ENTITY_NAME, shopOne.getId().toString()))
@@ -144,6 +181,7 @@ public class ShopOneResource {
                 return existingShopOne;
             })
             .map(shopOneRepository::save);
+        result.ifPresent(shopOneEventPublisher::publishUpdate);
 
         return ResponseUtil.wrapOrNotFound(
             result,
@@ -152,14 +190,47 @@ public class ShopOneResource {
     }
 
     /**
-     * {@code GET  /shop-ones} : get all the shopOnes.
+     * {@code GET  /shop-ones} : get a page of the shopOnes, in id order.
+     * <p>
+     * Pages are given by the id they start after rather than by their number, so that reading any page costs the same.
+     * The next page, if any, is linked by the {@code Link} header.
      *
-     * @return the {@link ResponseEntity} with status {@code 200 (OK)} and the list of shopOnes in body.
+     * @param after the id of the last shopOne of the previous page, none for the first page.
+     * @param size the number of shopOnes per page, at most {@code application.pagination.max-size}.
+     * @return the {@link ResponseEntity} with status {@code 200 (OK)} and the list of shopOnes in body,
+     * or with status {@code 400 (Bad Request)} if the size is invalid.
      */
     @GetMapping("/shop-ones")
-    public List<ShopOne> getAllShopOnes() {
-        log.debug("REST request to get all ShopOnes");
-        return shopOneRepository.findAll();
+    public ResponseEntity<List<ShopOne>> getAllShopOnes(
+        @RequestParam(required = false) Long after,
+        @RequestParam(required = false) Integer size
+    ) {
+        log.debug("REST request to get a page of ShopOnes after {}", after);
+        ApplicationProperties.Pagination pagination = applicationProperties.getPagination();
+        int pageSize = size != null ? size : pagination.getDefaultSize();
+        if (pageSize < 1 || pageSize > pagination.getMaxSize()) {
+            throw new BadRequestAlertException(
+                "Page size must be between 1 and " + pagination.getMaxSize() + ", was " + pageSize,
+                ENTITY_NAME,
+                "sizeinvalid"
+            );
+        }
+        // One more shopOne than asked tells whether there is a next page.
+        List<ShopOne> shopOnes = shopOneRepository.findByIdGreaterThanOrderByIdAsc(
+            after != null ? after : Long.MIN_VALUE,
+            PageRequest.of(0, pageSize + 1)
+        );
+        HttpHeaders headers = new HttpHeaders();
+        if (shopOnes.size() > pageSize) {
+            shopOnes = shopOnes.subList(0, pageSize);
+            String next = ServletUriComponentsBuilder
+                .fromCurrentRequest()
+                .replaceQueryParam("after", shopOnes.get(pageSize - 1).getId())
+                .replaceQueryParam("size", pageSize)
+                .toUriString();
+            headers.add(HttpHeaders.LINK, "<" + next + ">; rel=\"next\"");
+        }
+        return ResponseEntity.ok().headers(headers).body(shopOnes);
     }
 
     /**
@@ -184,6 +255,7 @@ public class ShopOneResource {
     @DeleteMapping("/shop-ones/{id}")
     public ResponseEntity<Void> deleteShopOne(@PathVariable Long id) {
         log.debug("REST request to delete ShopOne : {}", id);
+        shopOneEventPublisher.publishDeletion(id);
         shopOneRepository.deleteById(id);
         return ResponseEntity
             .noContent()
@@ -6,6 +6,9 @@ public final class ErrorConstants {
 
     public static final String ERR_CONCURRENCY_FAILURE = "error.concurrencyFailure";
     public static final String ERR_VALIDATION = "error.validation";
+    public static final String ERR_KAFKA_OVERLOADED = "error.kafkaOverloaded";
+    public static final String ERR_KAFKA_CONSUMERS_EXHAUSTED = "error.kafkaConsumersExhausted";
+    public static final String ERR_KAFKA_RECORD_TOO_LARGE = "error.kafkaRecordTooLarge";
     public static final String PROBLEM_BASE_URL = "https://www.jhipster.tech/problem";
     public static final URI DEFAULT_TYPE = URI.create(PROBLEM_BASE_URL + "/problem-with-message");
     public static final URI CONSTRAINT_VIOLATION_TYPE = URI.create(PROBLEM_BASE_URL + "/constraint-violation");
@@ -0,0 +1,22 @@
+package morozov.vu.web.rest.errors;
+
+import java.time.Duration;
+import org.zalando.problem.AbstractThrowableProblem;
+import org.zalando.problem.Status;
+
+/**
+ * Thrown when the broker does not acknowledge a publish within the configured timeout.
+ */
+public class KafkaPublishTimeoutException extends AbstractThrowableProblem {
+
+    private static final long serialVersionUID = 1L;
+
+    public KafkaPublishTimeoutException(String topic, Duration timeout) {
+        super(
+            ErrorConstants.DEFAULT_TYPE,
+            "Kafka publish timeout",
+            Status.GATEWAY_TIMEOUT,
+            "No acknowledgement from topic " + topic + " within " + timeout.toMillis() + " ms"
+        );
+    }
+}
@@ -0,0 +1,22 @@
+package morozov.vu.web.rest.errors;
+
+import java.time.Duration;
+import org.zalando.problem.AbstractThrowableProblem;
+import org.zalando.problem.Status;
+
+/**
+ * Thrown when the metadata of a topic to read cannot be fetched within the configured timeout.
+ */
+public class KafkaReadTimeoutException extends AbstractThrowableProblem {
+
+    private static final long serialVersionUID = 1L;
+
+    public KafkaReadTimeoutException(String topic, Duration timeout) {
+        super(
+            ErrorConstants.DEFAULT_TYPE,
+            "Kafka read timeout",
+            Status.GATEWAY_TIMEOUT,
+            "No metadata of topic " + topic + " within " + timeout.toMillis() + " ms"
+        );
+    }
+}
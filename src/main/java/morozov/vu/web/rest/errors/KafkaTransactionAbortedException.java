@@ -0,0 +1,21 @@
+package morozov.vu.web.rest.errors;
+
+import org.zalando.problem.AbstractThrowableProblem;
+import org.zalando.problem.Status;
+
+/**
+ * Thrown when a transactional publish is aborted, none of its records being visible to {@code read_committed} consumers.
+ */
+public class KafkaTransactionAbortedException extends AbstractThrowableProblem {
+
+    private static final long serialVersionUID = 1L;
+
+    public KafkaTransactionAbortedException(String topic, Throwable cause) {
+        super(
+            ErrorConstants.DEFAULT_TYPE,
+            "Kafka transaction aborted",
+            Status.BAD_GATEWAY,
+            "Transaction on topic " + topic + " aborted: " + cause.getMessage()
+        );
+    }
+}
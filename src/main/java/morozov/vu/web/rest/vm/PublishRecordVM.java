@@ -0,0 +1,50 @@
+package morozov.vu.web.rest.vm;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * View Model for a single record of a batch publish request.
+ */
+public class PublishRecordVM {
+
+    private String key;
+
+    private String value;
+
+    private Map<String, String> headers = new HashMap<>();
+
+    public String getKey() {
+        return key;
+    }
+
+    public void setKey(String key) {
+        this.key = key;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public void setValue(String value) {
+        this.value = value;
+    }
+
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    public void setHeaders(Map<String, String> headers) {
+        this.headers = headers;
+    }
+
+    // prettier-ignore
+    @Override
+    public String toString() {
+        return "PublishRecordVM{" +
+            "key='" + key + "'" +
+            ", value='" + value + "'" +
+            ", headers=" + headers +
+            "}";
+    }
+}
@@ -0,0 +1,42 @@
+package morozov.vu.web.rest.vm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * View Model for a page of records read from a topic.
+ */
+public class ReadPageVM {
+
+    private List<ReadRecordVM> records = new ArrayList<>();
+
+    /**
+     * Cursor to read the next page with, {@code null} on the last page.
+     */
+    private String cursor;
+
+    public List<ReadRecordVM> getRecords() {
+        return records;
+    }
+
+    public void setRecords(List<ReadRecordVM> records) {
+        this.records = records;
+    }
+
+    public String getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+
+    // prettier-ignore
+    @Override
+    public String toString() {
+        return "ReadPageVM{" +
+            "records=" + records.size() +
+            ", cursor='" + cursor + "'" +
+            "}";
+    }
+}
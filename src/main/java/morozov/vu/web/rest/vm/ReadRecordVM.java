@@ -0,0 +1,84 @@
+package morozov.vu.web.rest.vm;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * View Model for a record of a read page.
+ */
+public class ReadRecordVM {
+
+    private int partition;
+
+    private long offset;
+
+    private Instant timestamp;
+
+    private String key;
+
+    private String value;
+
+    private Map<String, String> headers = new HashMap<>();
+
+    public int getPartition() {
+        return partition;
+    }
+
+    public void setPartition(int partition) {
+        this.partition = partition;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public void setOffset(long offset) {
+        this.offset = offset;
+    }
+
+    public Instant getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(Instant timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public void setKey(String key) {
+        this.key = key;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public void setValue(String value) {
+        this.value = value;
+    }
+
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    public void setHeaders(Map<String, String> headers) {
+        this.headers = headers;
+    }
+
+    // prettier-ignore
+    @Override
+    public String toString() {
+        return "ReadRecordVM{" +
+            "partition=" + partition +
+            ", offset=" + offset +
+            ", timestamp=" + timestamp +
+            ", key='" + key + "'" +
+            ", value='" + value + "'" +
+            ", headers=" + headers +
+            "}";
+    }
+}
@@ -0,0 +1,388 @@
+package morozov.vu.web.websocket;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import morozov.vu.config.KafkaProperties;
+import morozov.vu.service.JsonProjection;
+import morozov.vu.service.KafkaConsumerHub;
+import morozov.vu.service.KafkaConsumersExhaustedException;
+import morozov.vu.service.KafkaRecordFilter;
+import morozov.vu.service.KafkaSubscriber;
+import morozov.vu.service.KafkaSubscription;
+import morozov.vu.service.PartitionOffsets;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.PingMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.BinaryWebSocketHandler;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+import org.springframework.web.util.UriComponentsBuilder;
+import org.springframework.web.util.UriUtils;
+
+/**
+ * WebSocket alternative to {@code GET /api/producer-kafka/consume} for high-rate machine consumers: records are
+ * streamed in batches, as binary frames laid out by {@link RecordFrameEncoder}.
+ * <p>
+ * The subscription is given by the query parameters of the handshake, as for {@code /consume}, including the
+ * {@code field} projections, except {@code frame}: frames are always binary batches of records. Plus:
+ * <ul>
+ *     <li>{@code after}: the offsets of the last records received, as the {@code Last-Event-ID} of {@code /consume},
+ *     to resume a stream.</li>
+ *     <li>{@code deflate}: {@code true} to deflate the frames larger than
+ *     {@code kafka.consume.websocket-deflate-threshold}.</li>
+ *     <li>{@code credits}: the number of frames the client is ready to receive. Without it, frames are sent as fast as
+ *     the client receives them. With it, the client grants more frames by sending their number as a text message, and
+ *     records are queued meanwhile.</li>
+ * </ul>
+ * Invalid subscriptions are closed with {@link CloseStatus#BAD_DATA}, and with {@link CloseStatus#SERVICE_OVERLOAD}
+ * when no more consumers are available.
+ */
+@Component
+public class KafkaConsumeWebSocketHandler extends BinaryWebSocketHandler {
+
+    private static final Set<String> SUBSCRIPTION_PARAMS = Set.of(
+        "topic",
+        "frameMaxRecords",
+        "frameMaxBytes",
+        "frameLingerMs",
+        "keyPrefix",
+        "keyRegex",
+        "header",
+        "field",
+        "frame",
+        "replay",
+        "overflow",
+        "after",
+        "deflate",
+        "credits"
+    );
+
+    private static final String SUBSCRIBER_ATTRIBUTE = "kafkaSubscriber";
+
+    /**
+     * Close reasons are limited to 123 bytes.
+     */
+    private static final int MAX_REASON_LENGTH = 120;
+
+    private final Logger log = LoggerFactory.getLogger(KafkaConsumeWebSocketHandler.class);
+
+    private final KafkaProperties kafkaProperties;
+
+    private final KafkaConsumerHub consumerHub;
+
+    public KafkaConsumeWebSocketHandler(KafkaProperties kafkaProperties, KafkaConsumerHub consumerHub) {
+        this.kafkaProperties = kafkaProperties;
+        this.consumerHub = consumerHub;
+    }
+
+    @Override
+    public void afterConnectionEstablished(WebSocketSession session) throws IOException {
+        KafkaProperties.Consume properties = kafkaProperties.getConsume();
+        WebSocketSession concurrentSession = new ConcurrentWebSocketSessionDecorator(
+            session,
+            (int) properties.getWebsocketSendTimeLimit().toMillis(),
+            (int) properties.getWebsocketBufferSizeLimit().toBytes()
+        );
+        MultiValueMap<String, String> query = UriComponentsBuilder.fromUri(session.getUri()).build().getQueryParams();
+        try {
+            List<String> topics = decode(query.get("topic"));
+            if (topics.isEmpty()) {
+                throw new IllegalArgumentException("At least one topic is required");
+            }
+            Map<String, String> params = new HashMap<>();
+            query.forEach((name, values) -> {
+                if (!SUBSCRIPTION_PARAMS.contains(name) && !values.isEmpty()) {
+                    params.put(name, decode(values.get(0)));
+                }
+            });
+            KafkaSubscription.Batching batching = new KafkaSubscription.Batching(
+                intParam(query, "frameMaxRecords", properties.getFrameMaxRecords()),
+                longParam(query, "frameMaxBytes", properties.getFrameMaxBytes().toBytes()),
+                Duration.ofMillis(longParam(query, "frameLingerMs", properties.getFrameLinger().toMillis()))
+            );
+            if (query.containsKey("frame")) {
+                throw new IllegalArgumentException("Frames are binary batches, frame is not supported");
+            }
+            KafkaRecordFilter filter = KafkaRecordFilter.of(
+                param(query, "keyPrefix"),
+                param(query, "keyRegex"),
+                KafkaRecordFilter.parseHeaders(decode(query.get("header")))
+            );
+            List<String> fields = decode(query.get("field"));
+            JsonProjection projection = !fields.isEmpty() ? JsonProjection.compile(fields) : null;
+            int replay = intParam(query, "replay", 0);
+            if (replay < 0) {
+                throw new IllegalArgumentException("Replay must not be negative, was " + replay);
+            }
+            String overflow = param(query, "overflow");
+            KafkaSubscription.OverflowPolicy overflowPolicy = overflow != null ? KafkaSubscription.OverflowPolicy.of(overflow) : null;
+            PartitionOffsets startOffsets = new PartitionOffsets();
+            PartitionOffsets
+                .parse(param(query, "after"))
+                .asMap()
+                .forEach((partition, offset) -> {
+                    if (topics.contains(partition.topic())) {
+                        startOffsets.put(partition, offset + 1);
+                    }
+                });
+            long credits = longParam(query, "credits", -1);
+            int deflateThreshold = Boolean.parseBoolean(param(query, "deflate"))
+                ? (int) properties.getWebsocketDeflateThreshold().toBytes()
+                : -1;
+
+            WebSocketSubscriber subscriber = new WebSocketSubscriber(
+                concurrentSession,
+                new RecordFrameEncoder(topics, deflateThreshold),
+                projection,
+                credits
+            );
+            session.getAttributes().put(SUBSCRIBER_ATTRIBUTE, subscriber);
+            KafkaSubscription subscription = consumerHub.subscribe(
+                topics,
+                params,
+                startOffsets,
+                subscriber,
+                batching,
+                filter,
+                startOffsets.isEmpty() ? replay : 0,
+                overflowPolicy
+            );
+            subscriber.subscribed(subscription);
+        } catch (IllegalArgumentException e) {
+            cancel(session);
+            concurrentSession.close(CloseStatus.BAD_DATA.withReason(truncate(e.getMessage())));
+        } catch (KafkaConsumersExhaustedException e) {
+            cancel(session);
+            concurrentSession.close(CloseStatus.SERVICE_OVERLOAD.withReason(truncate(e.getMessage())));
+        }
+    }
+
+    /**
+     * Grant the number of frames given by the message.
+     */
+    @Override
+    protected void handleTextMessage(WebSocketSession session, TextMessage message) throws IOException {
+        WebSocketSubscriber subscriber = (WebSocketSubscriber) session.getAttributes().get(SUBSCRIBER_ATTRIBUTE);
+        if (subscriber == null) {
+            return;
+        }
+        try {
+            long credits = Long.parseLong(message.getPayload().trim());
+            if (credits <= 0) {
+                throw new NumberFormatException();
+            }
+            subscriber.grant(credits);
+        } catch (NumberFormatException e) {
+            subscriber.close(CloseStatus.BAD_DATA.withReason("Expected a positive number of credits"));
+        }
+    }
+
+    @Override
+    public void handleTransportError(WebSocketSession session, Throwable exception) {
+        log.trace("WebSocket transport error {}", exception.getMessage(), exception);
+        cancel(session);
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+        cancel(session);
+    }
+
+    private void cancel(WebSocketSession session) {
+        WebSocketSubscriber subscriber = (WebSocketSubscriber) session.getAttributes().remove(SUBSCRIBER_ATTRIBUTE);
+        if (subscriber != null) {
+            subscriber.cancel();
+        }
+    }
+
+    private static String param(MultiValueMap<String, String> query, String name) {
+        String value = query.getFirst(name);
+        return value != null ? decode(value) : null;
+    }
+
+    private static int intParam(MultiValueMap<String, String> query, String name, int defaultValue) {
+        return (int) longParam(query, name, defaultValue);
+    }
+
+    private static long longParam(MultiValueMap<String, String> query, String name, long defaultValue) {
+        String value = param(query, name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + name + " " + value);
+        }
+    }
+
+    private static List<String> decode(List<String> values) {
+        List<String> decoded = new ArrayList<>();
+        if (values != null) {
+            values.forEach(value -> decoded.add(decode(value)));
+        }
+        return decoded;
+    }
+
+    private static String decode(String value) {
+        return UriUtils.decode(value, StandardCharsets.UTF_8);
+    }
+
+    private static String truncate(String reason) {
+        return reason != null && reason.length() > MAX_REASON_LENGTH ? reason.substring(0, MAX_REASON_LENGTH) : reason;
+    }
+
+    private class WebSocketSubscriber implements KafkaSubscriber {
+
+        private final WebSocketSession session;
+
+        private final RecordFrameEncoder encoder;
+
+        private final JsonProjection projection;
+
+        /**
+         * Number of frames the client is ready to receive, negative without flow control.
+         */
+        private final AtomicLong credits;
+
+        private final boolean flowControl;
+
+        private volatile KafkaSubscription subscription;
+
+        /**
+         * Whether the subscription joined its feed, from which point cancelling it unsubscribes it.
+         */
+        private volatile boolean subscribed;
+
+        private volatile boolean closed;
+
+        private WebSocketSubscriber(WebSocketSession session, RecordFrameEncoder encoder, JsonProjection projection, long credits) {
+            this.session = session;
+            this.encoder = encoder;
+            this.projection = projection;
+            this.credits = new AtomicLong(credits);
+            this.flowControl = credits >= 0;
+        }
+
+        @Override
+        public void onSubscribe(KafkaSubscription subscription) {
+            this.subscription = subscription;
+            if (flowControl && credits.get() <= 0) {
+                subscription.pause();
+            }
+        }
+
+        @Override
+        public void onRecords(List<ConsumerRecord<byte[], byte[]>> records) throws IOException {
+            List<ConsumerRecord<byte[], byte[]>> sent = projection != null ? project(records) : records;
+            if (sent.isEmpty()) {
+                return;
+            }
+            session.sendMessage(new BinaryMessage(encoder.encode(sent)));
+            if (flowControl && credits.decrementAndGet() <= 0) {
+                subscription.pause();
+                // Credits granted before the pause would not resume it.
+                if (credits.get() > 0) {
+                    subscription.resume();
+                }
+            }
+        }
+
+        /**
+         * Get the records with their projected values, skipping the records whose value is not JSON.
+         */
+        private List<ConsumerRecord<byte[], byte[]>> project(List<ConsumerRecord<byte[], byte[]>> records) {
+            List<ConsumerRecord<byte[], byte[]>> projected = new ArrayList<>(records.size());
+            for (ConsumerRecord<byte[], byte[]> record : records) {
+                byte[] value = projection.project(record.value());
+                if (value != null) {
+                    projected.add(
+                        new ConsumerRecord<>(
+                            record.topic(),
+                            record.partition(),
+                            record.offset(),
+                            record.timestamp(),
+                            record.timestampType(),
+                            record.serializedKeySize(),
+                            value.length,
+                            record.key(),
+                            value,
+                            record.headers(),
+                            record.leaderEpoch()
+                        )
+                    );
+                }
+            }
+            return projected;
+        }
+
+        private void grant(long granted) {
+            if (!flowControl) {
+                return;
+            }
+            if (credits.getAndAdd(granted) <= 0 && credits.get() > 0) {
+                subscription.resume();
+            }
+        }
+
+        @Override
+        public void onKeepAlive() throws IOException {
+            session.sendMessage(new PingMessage());
+        }
+
+        @Override
+        public void onComplete() {
+            close(CloseStatus.GOING_AWAY);
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            log.trace("Close with error {}", error.getMessage(), error);
+            close(CloseStatus.SERVER_ERROR.withReason(truncate(error.getMessage())));
+        }
+
+        private void close(CloseStatus status) {
+            try {
+                session.close(status);
+            } catch (IOException e) {
+                log.trace("Failed to close WebSocket session {}", e.getMessage(), e);
+            }
+        }
+
+        /**
+         * Cancel the subscription once it joined its feed, if the session was closed meanwhile.
+         */
+        private void subscribed(KafkaSubscription subscription) {
+            this.subscription = subscription;
+            subscribed = true;
+            if (closed) {
+                subscription.cancel();
+            }
+        }
+
+        /**
+         * Cancel the subscription, or have it cancelled once it joined its feed if it is still subscribing, and release
+         * the encoder.
+         */
+        private void cancel() {
+            closed = true;
+            if (subscribed) {
+                subscription.cancel();
+            }
+            encoder.close();
+        }
+    }
+}
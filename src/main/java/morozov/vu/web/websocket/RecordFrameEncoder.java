@@ -0,0 +1,111 @@
+package morozov.vu.web.websocket;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.Deflater;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.Header;
+
+/**
+ * Encodes batches of records as binary WebSocket frames.
+ * <p>
+ * The layout is big-endian and length-prefixed, lengths are {@code -1} for {@code null}:
+ * <pre>
+ * frame  := flags:u8 recordCount:i32 record*      everything after flags is deflated when flags bit 0 is set
+ * record := topic:u16 partition:i32 offset:i64 timestamp:i64 keyLength:i32 key valueLength:i32 value
+ *           headerCount:u16 header*               topic is the index of the topic in the subscribed topics
+ * header := nameLength:u16 name valueLength:i32 value
+ * </pre>
+ * An encoder reuses its deflater from frame to frame, encoding one frame at a time, until it is closed.
+ */
+class RecordFrameEncoder {
+
+    static final int FLAG_DEFLATED = 1;
+
+    private final List<String> topics;
+
+    private final Deflater deflater;
+
+    private final int deflateThreshold;
+
+    private final byte[] deflateBuffer = new byte[8192];
+
+    private boolean closed;
+
+    /**
+     * @param topics the subscribed topics.
+     * @param deflateThreshold the minimum size of the frames to deflate, or a negative value not to deflate any.
+     */
+    RecordFrameEncoder(List<String> topics, int deflateThreshold) {
+        this.topics = topics;
+        this.deflateThreshold = deflateThreshold;
+        this.deflater = deflateThreshold >= 0 ? new Deflater(Deflater.BEST_SPEED) : null;
+    }
+
+    /**
+     * @throws IOException if the encoder is closed.
+     */
+    synchronized ByteBuffer encode(List<ConsumerRecord<byte[], byte[]>> records) throws IOException {
+        if (closed) {
+            throw new IOException("Encoder closed");
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(body);
+        out.writeInt(records.size());
+        for (ConsumerRecord<byte[], byte[]> record : records) {
+            out.writeShort(topics.indexOf(record.topic()));
+            out.writeInt(record.partition());
+            out.writeLong(record.offset());
+            out.writeLong(record.timestamp());
+            writeBytes(out, record.key());
+            writeBytes(out, record.value());
+            Header[] headers = record.headers().toArray();
+            out.writeShort(headers.length);
+            for (Header header : headers) {
+                byte[] name = header.key().getBytes(StandardCharsets.UTF_8);
+                out.writeShort(name.length);
+                out.write(name);
+                writeBytes(out, header.value());
+            }
+        }
+        out.flush();
+
+        if (deflater == null || body.size() < deflateThreshold) {
+            ByteBuffer frame = ByteBuffer.allocate(1 + body.size());
+            frame.put((byte) 0).put(body.toByteArray());
+            return frame.flip();
+        }
+        ByteArrayOutputStream frame = new ByteArrayOutputStream(body.size() / 2);
+        frame.write(FLAG_DEFLATED);
+        deflater.reset();
+        deflater.setInput(body.toByteArray());
+        deflater.finish();
+        while (!deflater.finished()) {
+            frame.write(deflateBuffer, 0, deflater.deflate(deflateBuffer));
+        }
+        return ByteBuffer.wrap(frame.toByteArray());
+    }
+
+    /**
+     * Release the native memory of the deflater, once the frame being encoded if any is done.
+     */
+    synchronized void close() {
+        if (!closed && deflater != null) {
+            deflater.end();
+        }
+        closed = true;
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        if (bytes == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+}
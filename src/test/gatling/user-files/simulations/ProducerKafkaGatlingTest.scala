@@ -0,0 +1,95 @@
+import _root_.io.gatling.core.scenario.Simulation
+import ch.qos.logback.classic.{Level, LoggerContext}
+import io.gatling.core.Predef._
+import io.gatling.http.Predef._
+import org.slf4j.LoggerFactory
+
+import scala.concurrent.duration._
+
+/**
+ * Throughput test for the Kafka publish endpoints.
+ *
+ * Run it against instances started with different `kafka.producer-pool.size` values to see how publish throughput
+ * scales with the number of producers, e.g. `-Dusers=2000 -Dkeys=10000 -Dtopic=gatling-publish`.
+ *
+ * `-Dmode` selects the endpoint: `single` (default) publishes one record per request and waits for its acknowledgement,
+ * `batch` and `transactional` publish `-DbatchSize` records per request, the latter in a single Kafka transaction.
+ * Compare records per second, i.e. requests per second times `batchSize`, across modes.
+ */
+class ProducerKafkaGatlingTest extends Simulation {
+
+    val context: LoggerContext = LoggerFactory.getILoggerFactory.asInstanceOf[LoggerContext]
+    // Log all HTTP requests
+    //context.getLogger("io.gatling.http").setLevel(Level.valueOf("TRACE"))
+    // Log failed HTTP requests
+    //context.getLogger("io.gatling.http").setLevel(Level.valueOf("DEBUG"))
+
+    val baseURL = Option(System.getProperty("baseURL")) getOrElse """http://localhost:8081"""
+
+    val topic = Option(System.getProperty("topic")) getOrElse "gatling-publish"
+
+    val keys = Integer.getInteger("keys", 10000)
+
+    val mode = Option(System.getProperty("mode")) getOrElse "single"
+
+    val batchSize = Integer.getInteger("batchSize", 100)
+
+    val httpConf = http
+        .baseUrl(baseURL)
+        .acceptHeader("*/*")
+        .acceptEncodingHeader("gzip, deflate")
+        .connectionHeader("keep-alive")
+        .userAgentHeader("Gatling")
+
+    val headers_http_authentication = Map(
+        "Content-Type" -> """application/json""",
+        "Accept" -> """application/json"""
+    )
+
+    val headers_http_authenticated = Map(
+        "Accept" -> """application/json""",
+        "Authorization" -> "${access_token}"
+    )
+
+    val keyFeeder = Iterator.continually(Map("key" -> ("key-" + scala.util.Random.nextInt(keys))))
+
+    val batchFeeder = Iterator.continually(Map("batch" -> (1 to batchSize)
+        .map(i => s"""{"key":"key-${scala.util.Random.nextInt(keys)}","value":"SAMPLE_TEXT"}""")
+        .mkString("[", ",", "]")))
+
+    val publish = mode match {
+        case "batch" => feed(batchFeeder)
+            .exec(http("Publish batch")
+            .post("/services/producer/api/producer-kafka/publish/" + topic + "/batch")
+            .headers(headers_http_authenticated)
+            .body(StringBody("${batch}")).asJson
+            .check(status.is(200)))
+        case "transactional" => feed(batchFeeder)
+            .exec(http("Publish transactional batch")
+            .post("/services/producer/api/producer-kafka/publish/" + topic + "/batch?transactional=true")
+            .headers(headers_http_authenticated)
+            .body(StringBody("${batch}")).asJson
+            .check(status.is(200)))
+        case _ => feed(keyFeeder)
+            .exec(http("Publish keyed message")
+            .post("/services/producer/api/producer-kafka/publish/" + topic + "?key=${key}&message=SAMPLE_TEXT")
+            .headers(headers_http_authenticated)
+            .check(status.is(200)))
+    }
+
+    val scn = scenario("Publish to Kafka")
+        .exec(http("Authentication")
+        .post("/api/authenticate")
+        .headers(headers_http_authentication)
+        .body(StringBody("""{"username":"admin", "password":"admin"}""")).asJson
+        .check(header("Authorization").saveAs("access_token"))).exitHereIfFailed
+        .repeat(Integer.getInteger("messages", 100)) {
+            publish
+        }
+
+    val users = scenario("Publishers").exec(scn)
+
+    setUp(
+        users.inject(rampUsers(Integer.getInteger("users", 500)) during (Integer.getInteger("ramp", 1) minutes))
+    ).protocols(httpConf)
+}
@@ -0,0 +1,23 @@
+package morozov.vu.domain;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import morozov.vu.web.rest.TestUtil;
+import org.junit.jupiter.api.Test;
+
+class ShopOneOutboxEventTest {
+
+    @Test
+    void equalsVerifier() throws Exception {
+        TestUtil.equalsVerifier(ShopOneOutboxEvent.class);
+        ShopOneOutboxEvent shopOneOutboxEvent1 = new ShopOneOutboxEvent();
+        shopOneOutboxEvent1.setId(1L);
+        ShopOneOutboxEvent shopOneOutboxEvent2 = new ShopOneOutboxEvent();
+        shopOneOutboxEvent2.setId(shopOneOutboxEvent1.getId());
+        assertThat(shopOneOutboxEvent1).isEqualTo(shopOneOutboxEvent2);
+        shopOneOutboxEvent2.setId(2L);
+        assertThat(shopOneOutboxEvent1).isNotEqualTo(shopOneOutboxEvent2);
+        shopOneOutboxEvent1.setId(null);
+        assertThat(shopOneOutboxEvent1).isNotEqualTo(shopOneOutboxEvent2);
+    }
+}
@@ -0,0 +1,27 @@
+package morozov.vu.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import org.junit.jupiter.api.Test;
+
+class AdaptivePollTimeoutTest {
+
+    @Test
+    void lengthensWhileIdleAndShortensWhileFlowing() {
+        AdaptivePollTimeout timeout = new AdaptivePollTimeout(Duration.ofMillis(100), Duration.ofMillis(500));
+        assertThat(timeout.get()).isEqualTo(Duration.ofMillis(100));
+
+        timeout.onPoll(0);
+        assertThat(timeout.get()).isEqualTo(Duration.ofMillis(200));
+        timeout.onPoll(0);
+        timeout.onPoll(0);
+        assertThat(timeout.get()).isEqualTo(Duration.ofMillis(500));
+
+        timeout.onPoll(10);
+        assertThat(timeout.get()).isEqualTo(Duration.ofMillis(250));
+        timeout.onPoll(10);
+        timeout.onPoll(10);
+        assertThat(timeout.get()).isEqualTo(Duration.ofMillis(100));
+    }
+}
@@ -0,0 +1,49 @@
+package morozov.vu.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.jupiter.api.Test;
+
+class JsonProjectionTest {
+
+    @Test
+    void extractsRequestedFields() {
+        JsonProjection projection = JsonProjection.compile(Arrays.asList("/id", "/customer/name", "/lines/1"));
+
+        String projected = project(
+            projection,
+            "{\"id\":7,\"customer\":{\"name\":\"Ann\",\"address\":{\"city\":\"Oslo\"}},\"lines\":[{\"sku\":\"a\"},{\"sku\":\"b\"}]}"
+        );
+
+        assertThat(projected).isEqualTo("{\"id\":7,\"customer/name\":\"Ann\",\"lines/1\":{\"sku\":\"b\"}}");
+    }
+
+    @Test
+    void omitsMissingFields() {
+        JsonProjection projection = JsonProjection.compile(Arrays.asList("/id", "/missing"));
+
+        assertThat(project(projection, "{\"id\":\"a\",\"other\":{\"id\":\"b\"}}")).isEqualTo("{\"id\":\"a\"}");
+    }
+
+    @Test
+    void returnsNullForInvalidJson() {
+        JsonProjection projection = JsonProjection.compile(Collections.singletonList("/id"));
+
+        assertThat(projection.project("not json".getBytes(StandardCharsets.UTF_8))).isNull();
+        assertThat(projection.project(null)).isNull();
+    }
+
+    @Test
+    void rejectsInvalidPointers() {
+        assertThatThrownBy(() -> JsonProjection.compile(Collections.singletonList("id"))).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> JsonProjection.compile(Collections.singletonList(""))).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static String project(JsonProjection projection, String json) {
+        return new String(projection.project(json.getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,68 @@
+package morozov.vu.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import morozov.vu.config.KafkaProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+class KafkaAdmissionControllerTest {
+
+    private MeterRegistry meterRegistry;
+
+    private KafkaAdmissionController admissionController;
+
+    @BeforeEach
+    void setup() {
+        KafkaProperties kafkaProperties = new KafkaProperties();
+        kafkaProperties.getAdmission().setMaxInFlight(DataSize.ofBytes(100));
+        kafkaProperties.getAdmission().setMaxInFlightRecords(2);
+        meterRegistry = new SimpleMeterRegistry();
+        admissionController = new KafkaAdmissionController(kafkaProperties, meterRegistry);
+    }
+
+    @Test
+    void rejectsAboveRecordHighWaterMark() {
+        admissionController.acquire("default", 1, 10);
+        admissionController.acquire("default", 1, 10);
+
+        assertThatThrownBy(() -> admissionController.acquire("default", 1, 10)).isInstanceOf(KafkaOverloadedException.class);
+        assertThat(inFlightRecords("default")).isEqualTo(2);
+    }
+
+    @Test
+    void rejectsAboveByteHighWaterMark() {
+        assertThatThrownBy(() -> admissionController.acquire("default", 1, 101)).isInstanceOf(KafkaOverloadedException.class);
+        assertThat(inFlightRecords("default")).isZero();
+    }
+
+    @Test
+    void releasedPermitsFreeCapacityOnce() {
+        KafkaAdmissionController.Permit permit = admissionController.acquire("default", 2, 10);
+        permit.release();
+        permit.release();
+
+        assertThat(inFlightRecords("default")).isZero();
+        admissionController.acquire("default", 2, 10);
+    }
+
+    @Test
+    void producersAreTrackedIndependently() {
+        admissionController.acquire("default", 2, 10);
+
+        admissionController.check("bulk");
+        assertThatThrownBy(() -> admissionController.check("default")).isInstanceOf(KafkaOverloadedException.class);
+    }
+
+    private double inFlightRecords(String producer) {
+        return meterRegistry
+            .get(KafkaAdmissionController.IN_FLIGHT_RECORDS_METER_NAME)
+            .tag(KafkaAdmissionController.PRODUCER_DIMENSION, producer)
+            .gauge()
+            .value();
+    }
+}
@@ -0,0 +1,118 @@
+package morozov.vu.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import morozov.vu.config.KafkaProperties;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class KafkaConsumerHubTest {
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private KafkaConsumerHub hub;
+
+    @BeforeEach
+    void setup() {
+        KafkaProperties kafkaProperties = new KafkaProperties();
+        Map<String, String> consumerProps = new HashMap<>();
+        consumerProps.put("group.id", "hub-test");
+        consumerProps.put("enable.auto.commit", "false");
+        kafkaProperties.setConsumer(consumerProps);
+        kafkaProperties.getConsume().setMaxConsumers(1);
+        kafkaProperties.getConsume().setPollTimeout(Duration.ofMillis(100));
+        hub = new KafkaConsumerHub(kafkaProperties, meterRegistry);
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        hub.stop();
+    }
+
+    @Test
+    void sharesConsumerBetweenIdenticalSubscriptions() {
+        subscribe("topic", new NoopSubscriber());
+        subscribe("topic", new NoopSubscriber());
+
+        assertThat(meterRegistry.get(KafkaConsumerHub.FEEDS_METER_NAME).gauge().value()).isEqualTo(1);
+        assertThat(meterRegistry.get(KafkaConsumerHub.SUBSCRIPTIONS_METER_NAME).gauge().value()).isEqualTo(2);
+    }
+
+    @Test
+    void closesConsumerWithLastSubscription() {
+        KafkaSubscription first = subscribe("topic", new NoopSubscriber());
+        KafkaSubscription second = subscribe("topic", new NoopSubscriber());
+
+        first.cancel();
+        assertThat(meterRegistry.get(KafkaConsumerHub.FEEDS_METER_NAME).gauge().value()).isEqualTo(1);
+        second.cancel();
+        assertThat(meterRegistry.get(KafkaConsumerHub.FEEDS_METER_NAME).gauge().value()).isZero();
+    }
+
+    @Test
+    void rejectsSubscriptionsBeyondMaxConsumers() {
+        subscribe("topic", new NoopSubscriber());
+
+        assertThatThrownBy(() -> subscribe("other-topic", new NoopSubscriber()))
+            .isInstanceOf(KafkaConsumersExhaustedException.class);
+        assertThat(meterRegistry.get(KafkaConsumerHub.FEEDS_METER_NAME).gauge().value()).isEqualTo(1);
+    }
+
+    @Test
+    void completesSubscriptionsOnShutdown() throws InterruptedException {
+        CountDownLatch completed = new CountDownLatch(1);
+        subscribe(
+            "topic",
+            new NoopSubscriber() {
+                @Override
+                public void onComplete() {
+                    completed.countDown();
+                }
+            }
+        );
+
+        hub.stop();
+
+        assertThat(completed.await(10, TimeUnit.SECONDS)).isTrue();
+    }
+
+    private KafkaSubscription subscribe(String topic, KafkaSubscriber subscriber) {
+        return hub.subscribe(
+            Collections.singletonList(topic),
+            Collections.emptyMap(),
+            new PartitionOffsets(),
+            subscriber,
+            KafkaSubscription.Batching.UNBOUNDED,
+            KafkaRecordFilter.ACCEPT_ALL,
+            0,
+            null
+        );
+    }
+
+    private static class NoopSubscriber implements KafkaSubscriber {
+
+        @Override
+        public void onRecords(List<ConsumerRecord<byte[], byte[]>> records) {}
+
+        @Override
+        public void onKeepAlive() {}
+
+        @Override
+        public void onComplete() {}
+
+        @Override
+        public void onError(Throwable error) {}
+    }
+}
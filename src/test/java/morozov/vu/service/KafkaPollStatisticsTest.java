@@ -0,0 +1,45 @@
+package morozov.vu.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.jupiter.api.Test;
+
+class KafkaPollStatisticsTest {
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final KafkaPollStatistics statistics = new KafkaPollStatistics(meterRegistry);
+
+    @Test
+    void usesCapUntilRecordSizesAreKnown() {
+        assertThat(statistics.maxPollRecords(Collections.singletonList("topic"), 1000, 500)).isEqualTo(500);
+
+        statistics.recordTopic("topic", 10, 100);
+
+        assertThat(statistics.maxPollRecords(Collections.singletonList("topic"), 1000, 500)).isEqualTo(100);
+        assertThat(statistics.maxPollRecords(Arrays.asList("topic", "other"), 1000, 500)).isEqualTo(500);
+    }
+
+    @Test
+    void sizesMaxPollRecordsForLargestRecords() {
+        statistics.recordTopic("small", 10, 100);
+        statistics.recordTopic("large", 1, 500);
+
+        assertThat(statistics.maxPollRecords(Arrays.asList("small", "large"), 1000, 500)).isEqualTo(2);
+        assertThat(statistics.maxPollRecords(Collections.singletonList("large"), 100, 500)).isEqualTo(1);
+    }
+
+    @Test
+    void exportsPollMeters() {
+        statistics.recordPoll(Duration.ofMillis(100), 1_000_000, 10, 100);
+
+        assertThat(meterRegistry.get(KafkaPollStatistics.POLL_METER_NAME).timer().count()).isEqualTo(1);
+        assertThat(meterRegistry.get(KafkaPollStatistics.POLL_RECORDS_METER_NAME).summary().totalAmount()).isEqualTo(10);
+        assertThat(meterRegistry.get(KafkaPollStatistics.POLL_BYTES_METER_NAME).summary().totalAmount()).isEqualTo(100);
+    }
+}
@@ -0,0 +1,69 @@
+package morozov.vu.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.jupiter.api.Test;
+
+class KafkaProducerPoolTest {
+
+    @Test
+    void sameKeyAlwaysUsesSameProducer() {
+        KafkaProducerPool<String, String> pool = newPool(4);
+
+        Producer<String, String> producer = pool.forKey("shop-42");
+        for (int i = 0; i < 10; i++) {
+            assertThat(pool.forKey("shop-42")).isSameAs(producer);
+        }
+    }
+
+    @Test
+    void unkeyedRecordsAreSpreadRoundRobin() {
+        KafkaProducerPool<String, String> pool = newPool(3);
+
+        Set<Producer<String, String>> used = new HashSet<>();
+        for (int i = 0; i < 3; i++) {
+            used.add(pool.forKey(null));
+        }
+        assertThat(used).hasSize(3);
+    }
+
+    @Test
+    void rejectsEmptyPool() {
+        assertThatThrownBy(() -> newPool(0)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void closesCreatedProducersWhenAMemberCannotBeCreated() {
+        List<MockProducer<String, String>> created = new ArrayList<>();
+
+        assertThatThrownBy(() ->
+                new KafkaProducerPool<String, String>(
+                    3,
+                    index -> {
+                        if (index == 2) {
+                            throw new KafkaException("Failed to construct kafka producer");
+                        }
+                        MockProducer<String, String> producer = new MockProducer<>(true, new StringSerializer(), new StringSerializer());
+                        created.add(producer);
+                        return producer;
+                    }
+                )
+            )
+            .isInstanceOf(KafkaException.class);
+
+        assertThat(created).hasSize(2).allMatch(MockProducer::closed);
+    }
+
+    private KafkaProducerPool<String, String> newPool(int size) {
+        return new KafkaProducerPool<>(size, index -> new MockProducer<>(true, new StringSerializer(), new StringSerializer()));
+    }
+}
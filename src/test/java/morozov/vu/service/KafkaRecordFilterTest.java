@@ -0,0 +1,77 @@
+package morozov.vu.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.Test;
+
+class KafkaRecordFilterTest {
+
+    @Test
+    void acceptsEverythingWithoutCriteria() {
+        assertThat(KafkaRecordFilter.of(null, null, Collections.emptyMap())).isSameAs(KafkaRecordFilter.ACCEPT_ALL);
+        assertThat(KafkaRecordFilter.ACCEPT_ALL.test(record(null))).isTrue();
+    }
+
+    @Test
+    void filtersOnKeyPrefix() {
+        KafkaRecordFilter filter = KafkaRecordFilter.of("order-", null, Collections.emptyMap());
+
+        assertThat(filter.test(record("order-1"))).isTrue();
+        assertThat(filter.test(record("invoice-1"))).isFalse();
+        assertThat(filter.test(record("order"))).isFalse();
+        assertThat(filter.test(record(null))).isFalse();
+    }
+
+    @Test
+    void filtersOnWholeKeyRegex() {
+        KafkaRecordFilter filter = KafkaRecordFilter.of(null, "order-\\d+", Collections.emptyMap());
+
+        assertThat(filter.test(record("order-12"))).isTrue();
+        assertThat(filter.test(record("order-12-b"))).isFalse();
+    }
+
+    @Test
+    void filtersOnLastHeaderValue() {
+        KafkaRecordFilter filter = KafkaRecordFilter.of(null, null, Map.of("type", "created"));
+        ConsumerRecord<byte[], byte[]> created = record("key");
+        created.headers().add("type", "updated".getBytes(StandardCharsets.UTF_8));
+        created.headers().add("type", "created".getBytes(StandardCharsets.UTF_8));
+        ConsumerRecord<byte[], byte[]> updated = record("key");
+        updated.headers().add("type", "updated".getBytes(StandardCharsets.UTF_8));
+
+        assertThat(filter.test(created)).isTrue();
+        assertThat(filter.test(updated)).isFalse();
+        assertThat(filter.test(record("key"))).isFalse();
+    }
+
+    @Test
+    void rejectsInvalidRegex() {
+        assertThatThrownBy(() -> KafkaRecordFilter.of(null, "order-(", Collections.emptyMap()))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void rejectsTooLongRegex() {
+        assertThatThrownBy(() -> KafkaRecordFilter.of(null, "a".repeat(KafkaRecordFilter.MAX_KEY_REGEX_LENGTH + 1), Collections.emptyMap()))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void rejectsKeysTakingTooLongToMatch() {
+        KafkaRecordFilter filter = KafkaRecordFilter.of(null, "(a+)+b", Collections.emptyMap());
+
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> assertThat(filter.test(record("a".repeat(64)))).isFalse());
+        assertThat(filter.test(record("aab"))).isTrue();
+    }
+
+    private static ConsumerRecord<byte[], byte[]> record(String key) {
+        return new ConsumerRecord<>("topic", 0, 0, key != null ? key.getBytes(StandardCharsets.UTF_8) : null, new byte[0]);
+    }
+}
@@ -0,0 +1,55 @@
+package morozov.vu.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import morozov.vu.config.KafkaProperties;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.record.TimestampType;
+import org.junit.jupiter.api.Test;
+
+class KafkaReplayBufferTest {
+
+    @Test
+    void mergesTopicsByTimestampKeepingPartitionOrder() {
+        KafkaProperties kafkaProperties = new KafkaProperties();
+        for (String topic : Arrays.asList("first", "second")) {
+            KafkaProperties.Topic topicProperties = new KafkaProperties.Topic();
+            topicProperties.getReplay().setMaxRecords(10);
+            kafkaProperties.getTopics().put(topic, topicProperties);
+        }
+        KafkaReplayBuffer buffer = new KafkaReplayBuffer(kafkaProperties, new SimpleMeterRegistry());
+        // The producer timestamps of a partition are not necessarily in offset order.
+        buffer.append("first", Arrays.asList(record("first", 0, 100, "a0"), record("first", 1, 300, "a1"), record("first", 2, 200, "a2")));
+        buffer.append("second", Arrays.asList(record("second", 0, 150, "b0"), record("second", 1, 250, "b1")));
+
+        assertThat(values(buffer.last(Arrays.asList("first", "second"), 10))).containsExactly("a0", "b0", "b1", "a1", "a2");
+        assertThat(values(buffer.last(Arrays.asList("first", "second"), 2))).containsExactly("a1", "a2");
+    }
+
+    private static ConsumerRecord<byte[], byte[]> record(String topic, long offset, long timestamp, String value) {
+        return new ConsumerRecord<>(
+            topic,
+            0,
+            offset,
+            timestamp,
+            TimestampType.CREATE_TIME,
+            -1,
+            value.length(),
+            null,
+            value.getBytes(StandardCharsets.UTF_8),
+            new RecordHeaders(),
+            Optional.empty()
+        );
+    }
+
+    private static List<String> values(List<ConsumerRecord<byte[], byte[]>> records) {
+        return records.stream().map(record -> new String(record.value(), StandardCharsets.UTF_8)).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,83 @@
+package morozov.vu.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.Test;
+
+class KafkaReplayRingTest {
+
+    @Test
+    void keepsMostRecentRecordsInOrder() {
+        KafkaReplayRing ring = new KafkaReplayRing("topic", 3, 1600);
+        for (int i = 0; i < 5; i++) {
+            ring.append(record(i, "key-" + i, "value-" + i));
+        }
+
+        List<ConsumerRecord<byte[], byte[]>> records = ring.last(10);
+
+        assertThat(values(records)).containsExactly("value-2", "value-3", "value-4");
+        assertThat(new String(records.get(0).key(), StandardCharsets.UTF_8)).isEqualTo("key-2");
+        assertThat(records.get(0).offset()).isEqualTo(2);
+        assertThat(values(ring.last(1))).containsExactly("value-4");
+    }
+
+    @Test
+    void ignoresRecordsAlreadyBuffered() {
+        KafkaReplayRing ring = new KafkaReplayRing("topic", 10, 1600);
+        ring.append(record(0, null, "value-0"));
+        ring.append(record(1, null, "value-1"));
+        ring.append(record(1, null, "value-1"));
+        ring.append(record(0, null, "value-0"));
+
+        assertThat(values(ring.last(10))).containsExactly("value-0", "value-1");
+    }
+
+    @Test
+    void evictsOldestSegmentWhenSlabIsFull() {
+        KafkaReplayRing ring = new KafkaReplayRing("topic", 100, 160);
+        for (int i = 0; i < 20; i++) {
+            ring.append(record(i, null, "value-" + (char) ('a' + i)));
+        }
+        ring.append(record(20, null, "too-large-value"));
+
+        List<ConsumerRecord<byte[], byte[]>> records = ring.last(100);
+
+        assertThat(records).hasSize(16);
+        assertThat(records.get(0).offset()).isEqualTo(4);
+        assertThat(records.get(15).offset()).isEqualTo(19);
+        assertThat(ring.getBytes()).isEqualTo(16 * 7);
+    }
+
+    @Test
+    void keepsNullKeysAndHeaders() {
+        KafkaReplayRing ring = new KafkaReplayRing("topic", 10, 1600);
+        ConsumerRecord<byte[], byte[]> record = record(0, null, "value");
+        record.headers().add("type", "created".getBytes(StandardCharsets.UTF_8));
+        record.headers().add("empty", null);
+        ring.append(record);
+
+        ConsumerRecord<byte[], byte[]> replayed = ring.last(1).get(0);
+
+        assertThat(replayed.key()).isNull();
+        assertThat(replayed.headers().lastHeader("type").value()).isEqualTo("created".getBytes(StandardCharsets.UTF_8));
+        assertThat(replayed.headers().lastHeader("empty").value()).isNull();
+    }
+
+    private static ConsumerRecord<byte[], byte[]> record(long offset, String key, String value) {
+        return new ConsumerRecord<>(
+            "topic",
+            0,
+            offset,
+            key != null ? key.getBytes(StandardCharsets.UTF_8) : null,
+            value.getBytes(StandardCharsets.UTF_8)
+        );
+    }
+
+    private static List<String> values(List<ConsumerRecord<byte[], byte[]>> records) {
+        return records.stream().map(record -> new String(record.value(), StandardCharsets.UTF_8)).collect(Collectors.toList());
+    }
+}
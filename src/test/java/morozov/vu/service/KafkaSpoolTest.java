@@ -0,0 +1,143 @@
+package morozov.vu.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import morozov.vu.config.KafkaProperties;
+import morozov.vu.management.KafkaPublishMetersService;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+class KafkaSpoolTest {
+
+    @TempDir
+    Path directory;
+
+    private KafkaProperties kafkaProperties;
+
+    @BeforeEach
+    void setup() {
+        kafkaProperties = new KafkaProperties();
+        KafkaProperties.Spool spool = kafkaProperties.getSpool();
+        spool.setEnabled(true);
+        spool.setDirectory(directory.toString());
+        spool.setSegmentSize(DataSize.ofBytes(128));
+        spool.setMaxSegments(2);
+        spool.setDrainInterval(Duration.ofHours(1));
+    }
+
+    @Test
+    void spooledRecordsRoundTrip() {
+        ProducerRecord<String, String> record = new ProducerRecord<>("topic", "key", "value");
+        record.headers().add("source", "test".getBytes(StandardCharsets.UTF_8));
+        byte[] key = record.key().getBytes(StandardCharsets.UTF_8);
+        byte[] entry = new SpooledRecord(record.topic(), key, null, record.headers()).encode();
+
+        ProducerRecord<byte[], byte[]> decoded = SpooledRecord.decode(entry).toProducerRecord();
+
+        assertThat(decoded.topic()).isEqualTo("topic");
+        assertThat(new String(decoded.key(), StandardCharsets.UTF_8)).isEqualTo("key");
+        assertThat(decoded.value()).isNull();
+        assertThat(new String(decoded.headers().lastHeader("source").value(), StandardCharsets.UTF_8)).isEqualTo("test");
+    }
+
+    @Test
+    void pendingRecordsKeepSpoolActiveAcrossRestarts() throws Exception {
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        KafkaSpool spool = new KafkaSpool(kafkaProperties, new KafkaPublishMetersService(meterRegistry), meterRegistry);
+        spool.start();
+        assertThat(spool.isActive("topic")).isFalse();
+
+        spool.append(new ProducerRecord<>("topic", "key", "value"), new StringSerializer(), new StringSerializer());
+        assertThat(spool.isActive("topic")).isTrue();
+        double pending = meterRegistry.get(KafkaSpool.PENDING_METER_NAME).gauge().value();
+        assertThat(pending).isPositive();
+        spool.stop();
+
+        MeterRegistry recoveredRegistry = new SimpleMeterRegistry();
+        KafkaSpool recovered = new KafkaSpool(kafkaProperties, new KafkaPublishMetersService(recoveredRegistry), recoveredRegistry);
+        recovered.start();
+        assertThat(recovered.isActive("topic")).isTrue();
+        assertThat(recovered.isActive("other")).isFalse();
+        assertThat(recoveredRegistry.get(KafkaSpool.PENDING_METER_NAME).gauge().value()).isEqualTo(pending);
+        recovered.stop();
+    }
+
+    @Test
+    void rejectsAppendsOnceAllSegmentsAreFull() throws Exception {
+        KafkaSpool spool = spool();
+        spool.start();
+        StringSerializer serializer = new StringSerializer();
+        String value = "0123456789012345678901234567890123456789";
+
+        assertThatThrownBy(() -> {
+                for (int i = 0; i < 10; i++) {
+                    spool.append(new ProducerRecord<>("topic", value), serializer, serializer);
+                }
+            })
+            .isInstanceOf(KafkaOverloadedException.class);
+        spool.stop();
+    }
+
+    @Test
+    void rejectsRecordsLargerThanASegment() throws Exception {
+        KafkaSpool spool = spool();
+        spool.start();
+        StringSerializer serializer = new StringSerializer();
+
+        assertThatThrownBy(() -> spool.append(new ProducerRecord<>("topic", "0123456789".repeat(13)), serializer, serializer))
+            .isInstanceOf(KafkaRecordTooLargeException.class);
+        assertThat(spool.isActive("topic")).isFalse();
+        spool.stop();
+    }
+
+    @Test
+    void grantsNoPermissionWhileRecordsOfTheTopicArePending() throws Exception {
+        KafkaSpool spool = spool();
+        spool.start();
+        StringSerializer serializer = new StringSerializer();
+        assertThat(spool.tryAcquirePermission("topic")).isTrue();
+        spool.releasePermission();
+
+        spool.append(new ProducerRecord<>("topic", "value"), serializer, serializer);
+
+        assertThat(spool.tryAcquirePermission("topic")).isFalse();
+        assertThat(spool.tryAcquirePermission("other")).isTrue();
+        spool.releasePermission();
+        spool.stop();
+    }
+
+    @Test
+    void opensTheCircuitAfterAFewSlowSends() throws Exception {
+        kafkaProperties.getSpool().setCircuitMinimumNumberOfCalls(3);
+        kafkaProperties.setProducer(Map.of(ProducerConfig.MAX_BLOCK_MS_CONFIG, "1000"));
+        KafkaSpool spool = spool();
+        spool.start();
+
+        for (int i = 0; i < 3; i++) {
+            assertThat(spool.tryAcquirePermission("topic")).isTrue();
+            spool.recordOutcome(TimeUnit.SECONDS.toNanos(2), null);
+        }
+
+        assertThat(spool.tryAcquirePermission("topic")).isFalse();
+        assertThat(spool.isActive("other")).isTrue();
+        spool.stop();
+    }
+
+    private KafkaSpool spool() {
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        return new KafkaSpool(kafkaProperties, new KafkaPublishMetersService(meterRegistry), meterRegistry);
+    }
+}
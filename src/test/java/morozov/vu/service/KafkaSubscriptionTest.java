@@ -0,0 +1,256 @@
+package morozov.vu.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.Test;
+
+class KafkaSubscriptionTest {
+
+    private final List<String> delivered = new ArrayList<>();
+
+    private final AtomicInteger keepAlives = new AtomicInteger();
+
+    private final List<Throwable> errors = new ArrayList<>();
+
+    private final List<Integer> batchSizes = new ArrayList<>();
+
+    @Test
+    void deliversRecordsInOrder() {
+        KafkaSubscription subscription = newSubscription(Runnable::run, 10, KafkaSubscription.Batching.UNBOUNDED);
+
+        subscription.offer(Arrays.asList(record(0, "a"), record(1, "b")));
+        subscription.offer(Collections.singletonList(record(2, "c")));
+
+        assertThat(delivered).containsExactly("a", "b", "c");
+        assertThat(keepAlives.get()).isZero();
+        assertThat(subscription.getQueuedRecords()).isZero();
+    }
+
+    @Test
+    void sendsKeepAliveOnlyWhenIdle() {
+        KafkaSubscription subscription = newSubscription(Runnable::run, 10, KafkaSubscription.Batching.UNBOUNDED);
+
+        subscription.keepAlive();
+        assertThat(keepAlives.get()).isEqualTo(1);
+
+        subscription.offer(Collections.singletonList(record(0, "a")));
+        subscription.keepAlive();
+        assertThat(keepAlives.get()).isEqualTo(1);
+
+        subscription.keepAlive();
+        assertThat(keepAlives.get()).isEqualTo(2);
+    }
+
+    @Test
+    void disconnectsSubscriberWhenQueueOverflows() {
+        List<Runnable> pending = new ArrayList<>();
+        AtomicBoolean unsubscribed = new AtomicBoolean();
+        KafkaSubscription subscription = newSubscription(pending::add, 2, KafkaSubscription.Batching.UNBOUNDED);
+        subscription.onCancel(() -> unsubscribed.set(true));
+
+        subscription.offer(Arrays.asList(record(0, "a"), record(1, "b")));
+        subscription.offer(Collections.singletonList(record(2, "c")));
+
+        assertThat(subscription.isCancelled()).isTrue();
+        assertThat(unsubscribed).isTrue();
+        assertThat(errors).hasSize(1);
+        pending.forEach(Runnable::run);
+        assertThat(delivered).isEmpty();
+    }
+
+    @Test
+    void stopsDeliveringOnceCancelled() {
+        KafkaSubscription subscription = newSubscription(Runnable::run, 10, KafkaSubscription.Batching.UNBOUNDED);
+
+        subscription.cancel();
+        subscription.offer(Collections.singletonList(record(0, "a")));
+
+        assertThat(delivered).isEmpty();
+        assertThat(errors).isEmpty();
+    }
+
+    @Test
+    void splitsDeliveriesIntoBoundedBatches() {
+        KafkaSubscription.Batching batching = new KafkaSubscription.Batching(2, Long.MAX_VALUE, Duration.ZERO);
+        KafkaSubscription subscription = newSubscription(Runnable::run, 10, batching);
+
+        subscription.offer(Arrays.asList(record(0, "a"), record(1, "b"), record(2, "c")));
+
+        assertThat(delivered).containsExactly("a", "b", "c");
+        assertThat(batchSizes).containsExactly(2, 1);
+    }
+
+    @Test
+    void lingersUntilBatchIsFull() {
+        List<Runnable> pending = new ArrayList<>();
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            KafkaSubscription subscription = new KafkaSubscription(
+                new RecordingSubscriber(),
+                pending::add,
+                scheduler,
+                limits(10, KafkaSubscription.OverflowPolicy.DISCONNECT),
+                new KafkaSubscription.Batching(2, Long.MAX_VALUE, Duration.ofHours(1)),
+                KafkaRecordFilter.ACCEPT_ALL
+            );
+
+            subscription.offer(Collections.singletonList(record(0, "a")));
+            assertThat(pending).isEmpty();
+            subscription.offer(Collections.singletonList(record(1, "b")));
+            assertThat(pending).hasSize(1);
+
+            pending.get(0).run();
+            assertThat(batchSizes).containsExactly(2);
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Test
+    void deliversReplayBeforeHeldRecords() {
+        KafkaSubscription subscription = newSubscription(Runnable::run, 10, KafkaSubscription.Batching.UNBOUNDED);
+        subscription.hold();
+
+        subscription.offer(Arrays.asList(record(1, "b"), record(2, "c")));
+        assertThat(delivered).isEmpty();
+
+        subscription.replay(Arrays.asList(record(0, "a"), record(1, "b")));
+        assertThat(delivered).containsExactly("a", "b", "c");
+
+        subscription.offer(Collections.singletonList(record(3, "d")));
+        assertThat(delivered).containsExactly("a", "b", "c", "d");
+    }
+
+    @Test
+    void queuesOnlyFilteredRecords() {
+        KafkaSubscription subscription = new KafkaSubscription(
+            new RecordingSubscriber(),
+            Runnable::run,
+            null,
+            limits(1, KafkaSubscription.OverflowPolicy.DISCONNECT),
+            KafkaSubscription.Batching.UNBOUNDED,
+            record -> new String(record.value(), StandardCharsets.UTF_8).startsWith("keep")
+        );
+
+        subscription.offer(Arrays.asList(record(0, "drop"), record(1, "keep"), record(2, "drop")));
+        subscription.offer(Collections.singletonList(record(3, "drop")));
+
+        assertThat(subscription.isCancelled()).isFalse();
+        assertThat(delivered).containsExactly("keep");
+    }
+
+    @Test
+    void dropsOldestRecordsWhenQueueOverflows() {
+        List<Runnable> pending = new ArrayList<>();
+        KafkaSubscription subscription = newSubscription(pending::add, limits(2, KafkaSubscription.OverflowPolicy.DROP_OLDEST));
+
+        subscription.offer(Arrays.asList(record(0, "a"), record(1, "b")));
+        subscription.offer(Collections.singletonList(record(2, "c")));
+        pending.forEach(Runnable::run);
+
+        assertThat(subscription.isCancelled()).isFalse();
+        assertThat(delivered).containsExactly("b", "c");
+        assertThat(subscription.getDroppedRecords()).isEqualTo(1);
+    }
+
+    @Test
+    void dropsNewestRecordsWhenQueueOverflows() {
+        List<Runnable> pending = new ArrayList<>();
+        KafkaSubscription subscription = newSubscription(pending::add, limits(2, KafkaSubscription.OverflowPolicy.DROP_NEWEST));
+
+        subscription.offer(Arrays.asList(record(0, "a"), record(1, "b")));
+        subscription.offer(Arrays.asList(record(2, "c"), record(3, "d")));
+        pending.forEach(Runnable::run);
+
+        assertThat(delivered).containsExactly("a", "b");
+        assertThat(subscription.getDroppedRecords()).isEqualTo(2);
+    }
+
+    @Test
+    void boundsQueuedBytes() {
+        List<Runnable> pending = new ArrayList<>();
+        KafkaSubscription subscription = newSubscription(
+            pending::add,
+            new KafkaSubscription.QueueLimits(100, 2, KafkaSubscription.OverflowPolicy.DROP_OLDEST)
+        );
+
+        subscription.offer(Arrays.asList(record(0, "a"), record(1, "b"), record(2, "c")));
+
+        assertThat(subscription.getQueuedRecords()).isEqualTo(2);
+        assertThat(subscription.getQueuedBytes()).isEqualTo(2);
+    }
+
+    @Test
+    void measuresSends() {
+        KafkaSubscription subscription = newSubscription(Runnable::run, 10, KafkaSubscription.Batching.UNBOUNDED);
+
+        subscription.offer(Collections.singletonList(record(0, "a")));
+
+        assertThat(subscription.getSendCount()).isEqualTo(1);
+        assertThat(subscription.getLagMillis()).isZero();
+    }
+
+    private KafkaSubscription newSubscription(Executor dispatchExecutor, int maxQueuedRecords, KafkaSubscription.Batching batching) {
+        return new KafkaSubscription(
+            new RecordingSubscriber(),
+            dispatchExecutor,
+            null,
+            limits(maxQueuedRecords, KafkaSubscription.OverflowPolicy.DISCONNECT),
+            batching,
+            KafkaRecordFilter.ACCEPT_ALL
+        );
+    }
+
+    private KafkaSubscription newSubscription(Executor dispatchExecutor, KafkaSubscription.QueueLimits queueLimits) {
+        return new KafkaSubscription(
+            new RecordingSubscriber(),
+            dispatchExecutor,
+            null,
+            queueLimits,
+            KafkaSubscription.Batching.UNBOUNDED,
+            KafkaRecordFilter.ACCEPT_ALL
+        );
+    }
+
+    private static KafkaSubscription.QueueLimits limits(int maxRecords, KafkaSubscription.OverflowPolicy policy) {
+        return new KafkaSubscription.QueueLimits(maxRecords, Long.MAX_VALUE, policy);
+    }
+
+    private static ConsumerRecord<byte[], byte[]> record(long offset, String value) {
+        return new ConsumerRecord<>("topic", 0, offset, null, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private class RecordingSubscriber implements KafkaSubscriber {
+
+        @Override
+        public void onRecords(List<ConsumerRecord<byte[], byte[]>> records) {
+            batchSizes.add(records.size());
+            records.forEach(record -> delivered.add(new String(record.value(), StandardCharsets.UTF_8)));
+        }
+
+        @Override
+        public void onKeepAlive() {
+            keepAlives.incrementAndGet();
+        }
+
+        @Override
+        public void onComplete() {}
+
+        @Override
+        public void onError(Throwable error) {
+            errors.add(error);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package morozov.vu.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.errors.ProducerFencedException;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.jupiter.api.Test;
+
+class KafkaTransactionalProducerPoolTest {
+
+    private final List<MockProducer<String, String>> created = new ArrayList<>();
+
+    @Test
+    void commitsAllRecordsOfTheTransaction() throws Exception {
+        KafkaTransactionalProducerPool<String, String> pool = newPool(1);
+
+        pool.executeInTransaction(
+            Duration.ofSeconds(1),
+            producer -> {
+                producer.send(new ProducerRecord<>("topic", "key-1", "value-1"));
+                return producer.send(new ProducerRecord<>("topic", "key-2", "value-2"));
+            }
+        );
+
+        MockProducer<String, String> producer = created.get(0);
+        assertThat(producer.transactionCommitted()).isTrue();
+        assertThat(producer.history()).hasSize(2);
+    }
+
+    @Test
+    void abortsTheTransactionWhenSendingFails() {
+        KafkaTransactionalProducerPool<String, String> pool = newPool(1);
+
+        assertThatThrownBy(() ->
+                pool.executeInTransaction(
+                    Duration.ofSeconds(1),
+                    producer -> {
+                        producer.send(new ProducerRecord<>("topic", "key-1", "value-1"));
+                        throw new IllegalStateException("failed");
+                    }
+                )
+            )
+            .isInstanceOf(IllegalStateException.class);
+
+        MockProducer<String, String> producer = created.get(0);
+        assertThat(producer.transactionAborted()).isTrue();
+        assertThat(producer.history()).isEmpty();
+    }
+
+    @Test
+    void replacesFencedProducers() throws Exception {
+        KafkaTransactionalProducerPool<String, String> pool = newPool(1);
+        created.get(0).fenceProducer();
+
+        assertThatThrownBy(() -> pool.executeInTransaction(Duration.ofSeconds(1), producer -> null))
+            .isInstanceOf(ProducerFencedException.class);
+        assertThat(created.get(0).closed()).isTrue();
+
+        pool.executeInTransaction(Duration.ofSeconds(1), producer -> producer.send(new ProducerRecord<>("topic", "value")));
+        assertThat(created).hasSize(2);
+        assertThat(created.get(1).transactionCommitted()).isTrue();
+    }
+
+    @Test
+    void timesOutWhenNoProducerIsIdle() throws Exception {
+        KafkaTransactionalProducerPool<String, String> pool = newPool(1);
+
+        pool.executeInTransaction(
+            Duration.ofSeconds(1),
+            producer -> {
+                assertThatThrownBy(() -> pool.executeInTransaction(Duration.ofMillis(10), other -> null))
+                    .isInstanceOf(TimeoutException.class);
+                return null;
+            }
+        );
+    }
+
+    @Test
+    void closesCreatedProducersWhenAMemberCannotBeCreated() {
+        assertThatThrownBy(() ->
+                new KafkaTransactionalProducerPool<String, String>(
+                    2,
+                    index -> {
+                        if (index == 1) {
+                            throw new IllegalStateException("failed");
+                        }
+                        MockProducer<String, String> producer = new MockProducer<>(true, new StringSerializer(), new StringSerializer());
+                        created.add(producer);
+                        return producer;
+                    }
+                )
+            )
+            .isInstanceOf(IllegalStateException.class);
+
+        assertThat(created).hasSize(1);
+        assertThat(created.get(0).closed()).isTrue();
+    }
+
+    private KafkaTransactionalProducerPool<String, String> newPool(int size) {
+        return new KafkaTransactionalProducerPool<>(
+            size,
+            index -> {
+                MockProducer<String, String> producer = new MockProducer<>(true, new StringSerializer(), new StringSerializer());
+                producer.initTransactions();
+                created.add(producer);
+                return producer;
+            }
+        );
+    }
+}
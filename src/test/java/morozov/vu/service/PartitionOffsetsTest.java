@@ -0,0 +1,41 @@
+package morozov.vu.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.Test;
+
+class PartitionOffsetsTest {
+
+    @Test
+    void formatsSortedEntries() {
+        PartitionOffsets offsets = new PartitionOffsets();
+        offsets.put(new TopicPartition("orders", 1), 17);
+        offsets.put(new TopicPartition("orders", 0), 42);
+        offsets.put(new TopicPartition("audit", 3), 5);
+
+        assertThat(offsets).hasToString("audit/3/5,orders/0/42,orders/1/17");
+    }
+
+    @Test
+    void parsesItsTextForm() {
+        PartitionOffsets offsets = PartitionOffsets.parse("orders.v1/0/42, orders.v1/1/17");
+
+        assertThat(offsets.get(new TopicPartition("orders.v1", 0))).isEqualTo(42);
+        assertThat(offsets.get(new TopicPartition("orders.v1", 1))).isEqualTo(17);
+        assertThat(PartitionOffsets.parse(offsets.toString())).isEqualTo(offsets);
+    }
+
+    @Test
+    void parsesMissingValueAsEmpty() {
+        assertThat(PartitionOffsets.parse(null).isEmpty()).isTrue();
+        assertThat(PartitionOffsets.parse("").isEmpty()).isTrue();
+    }
+
+    @Test
+    void rejectsMalformedValues() {
+        assertThatThrownBy(() -> PartitionOffsets.parse("orders/0")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> PartitionOffsets.parse("orders/zero/1")).isInstanceOf(IllegalArgumentException.class);
+    }
+}
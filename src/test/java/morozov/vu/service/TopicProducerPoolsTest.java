@@ -0,0 +1,45 @@
+package morozov.vu.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.Collections;
+import morozov.vu.config.KafkaProperties;
+import morozov.vu.management.KafkaPublishMetersService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class TopicProducerPoolsTest {
+
+    private KafkaProperties kafkaProperties;
+
+    @BeforeEach
+    void setup() {
+        kafkaProperties = new KafkaProperties();
+        kafkaProperties.setProducer(Collections.singletonMap("linger.ms", "5"));
+
+        KafkaProperties.Topic bulk = new KafkaProperties.Topic();
+        bulk.setProducer(Collections.singletonMap("linger.ms", "20"));
+        kafkaProperties.getTopics().put("bulk", bulk);
+        kafkaProperties.getTopics().put("no-overrides", new KafkaProperties.Topic());
+    }
+
+    @Test
+    void topicsWithOverridesHaveTheirOwnProfile() {
+        TopicProducerPools<String, String> pools = new TopicProducerPools<>(
+            kafkaProperties,
+            new KafkaPublishMetersService(new SimpleMeterRegistry()),
+            Collections.emptyMap()
+        );
+
+        assertThat(pools.profileOf("bulk")).isEqualTo("bulk");
+        assertThat(pools.profileOf("no-overrides")).isEqualTo(TopicProducerPools.DEFAULT_PROFILE);
+        assertThat(pools.profileOf("unknown")).isEqualTo(TopicProducerPools.DEFAULT_PROFILE);
+    }
+
+    @Test
+    void topicOverridesTakePrecedence() {
+        assertThat(kafkaProperties.getProducerProps("bulk")).containsEntry("linger.ms", "20");
+        assertThat(kafkaProperties.getProducerProps("unknown")).containsEntry("linger.ms", "5");
+    }
+}
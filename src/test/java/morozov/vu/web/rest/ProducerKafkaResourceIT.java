@@ -2,20 +2,29 @@ package morozov.vu.web.rest;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.fail;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import morozov.vu.config.KafkaProperties;
+import morozov.vu.management.KafkaPublishMetersService;
+import morozov.vu.service.KafkaAdmissionController;
+import morozov.vu.service.KafkaConsumerHub;
+import morozov.vu.service.KafkaRangeReader;
+import morozov.vu.service.KafkaSpool;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
 import org.apache.kafka.clients.producer.KafkaProducer;
 import org.apache.kafka.clients.producer.ProducerRecord;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -33,6 +42,12 @@ class ProducerKafkaResourceIT {
 
     private MockMvc restMockMvc;
 
+    private SimpleMeterRegistry meterRegistry;
+
+    private KafkaConsumerHub consumerHub;
+
+    private KafkaRangeReader rangeReader;
+
     @BeforeAll
     static void startServer() {
         if (!started) {
@@ -48,6 +63,12 @@ class ProducerKafkaResourceIT {
         kafkaContainer.start();
     }
 
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        consumerHub.stop();
+        rangeReader.close();
+    }
+
     @BeforeEach
     void setup() {
         KafkaProperties kafkaProperties = new KafkaProperties();
@@ -58,7 +79,20 @@ class ProducerKafkaResourceIT {
         consumerProps.put("client.id", "default-client");
         kafkaProperties.setConsumer(consumerProps);
 
-        ProducerKafkaResource kafkaResource = new ProducerKafkaResource(kafkaProperties);
+        meterRegistry = new SimpleMeterRegistry();
+        KafkaAdmissionController admissionController = new KafkaAdmissionController(kafkaProperties, meterRegistry);
+        KafkaPublishMetersService metersService = new KafkaPublishMetersService(meterRegistry);
+        KafkaSpool spool = new KafkaSpool(kafkaProperties, metersService, meterRegistry);
+        consumerHub = new KafkaConsumerHub(kafkaProperties, meterRegistry);
+        rangeReader = new KafkaRangeReader(kafkaProperties);
+        ProducerKafkaResource kafkaResource = new ProducerKafkaResource(
+            kafkaProperties,
+            admissionController,
+            metersService,
+            spool,
+            consumerHub,
+            rangeReader
+        );
 
         restMockMvc = MockMvcBuilders.standaloneSetup(kafkaResource).build();
     }
@@ -80,6 +114,138 @@ class ProducerKafkaResourceIT {
         assertThat(record.value()).isEqualTo("value-produce");
     }
 
+    @Test
+    void producesBinaryMessages() throws Exception {
+        restMockMvc
+            .perform(
+                post("/api/producer-kafka/publish/topic-produce-binary")
+                    .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                    .content("value-produce-binary".getBytes(StandardCharsets.UTF_8))
+            )
+            .andExpect(status().isOk())
+            .andExpect(content().contentType(MediaType.APPLICATION_JSON));
+
+        Map<String, Object> consumerProps = new HashMap<>(getConsumerProps("group-produce-binary"));
+        KafkaConsumer<String, String> consumer = new KafkaConsumer<>(consumerProps);
+        consumer.subscribe(Collections.singletonList("topic-produce-binary"));
+        ConsumerRecords<String, String> records = consumer.poll(Duration.ofSeconds(1));
+
+        assertThat(records.count()).isEqualTo(1);
+        assertThat(records.iterator().next().value()).isEqualTo("value-produce-binary");
+    }
+
+    @Test
+    void producesMessagesAsynchronously() throws Exception {
+        MvcResult mvcResult = restMockMvc
+            .perform(post("/api/producer-kafka/publish/topic-produce-async/async?message=value-produce-async"))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+
+        restMockMvc
+            .perform(asyncDispatch(mvcResult))
+            .andExpect(status().isOk())
+            .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+            .andExpect(jsonPath("$.topic").value("topic-produce-async"));
+
+        Map<String, Object> consumerProps = new HashMap<>(getConsumerProps("group-produce-async"));
+        KafkaConsumer<String, String> consumer = new KafkaConsumer<>(consumerProps);
+        consumer.subscribe(Collections.singletonList("topic-produce-async"));
+        ConsumerRecords<String, String> records = consumer.poll(Duration.ofSeconds(1));
+
+        assertThat(records.count()).isEqualTo(1);
+        assertThat(records.iterator().next().value()).isEqualTo("value-produce-async");
+    }
+
+    @Test
+    void producesMessageBatches() throws Exception {
+        MvcResult mvcResult = restMockMvc
+            .perform(
+                post("/api/producer-kafka/publish/topic-produce-batch/batch")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .content("[{\"key\":\"k1\",\"value\":\"value-1\",\"headers\":{\"source\":\"test\"}},{\"value\":\"value-2\"}]")
+            )
+            .andExpect(request().asyncStarted())
+            .andReturn();
+
+        restMockMvc
+            .perform(asyncDispatch(mvcResult))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.length()").value(2))
+            .andExpect(jsonPath("$[0].index").value(0))
+            .andExpect(jsonPath("$[1].offset").isNumber());
+
+        Map<String, Object> consumerProps = new HashMap<>(getConsumerProps("group-produce-batch"));
+        KafkaConsumer<String, String> consumer = new KafkaConsumer<>(consumerProps);
+        consumer.subscribe(Collections.singletonList("topic-produce-batch"));
+        ConsumerRecords<String, String> records = consumer.poll(Duration.ofSeconds(1));
+
+        assertThat(records.count()).isEqualTo(2);
+    }
+
+    @Test
+    void producesMessageBatchesWithNullHeaderValues() throws Exception {
+        MvcResult mvcResult = restMockMvc
+            .perform(
+                post("/api/producer-kafka/publish/topic-produce-batch-null-header/batch")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .content("[{\"value\":\"value-1\",\"headers\":{\"source\":null}}]")
+            )
+            .andExpect(request().asyncStarted())
+            .andReturn();
+
+        restMockMvc.perform(asyncDispatch(mvcResult)).andExpect(status().isOk()).andExpect(jsonPath("$[0].offset").isNumber());
+
+        Map<String, Object> consumerProps = new HashMap<>(getConsumerProps("group-produce-batch-null-header"));
+        KafkaConsumer<String, String> consumer = new KafkaConsumer<>(consumerProps);
+        consumer.subscribe(Collections.singletonList("topic-produce-batch-null-header"));
+        ConsumerRecords<String, String> records = consumer.poll(Duration.ofSeconds(1));
+
+        assertThat(records.count()).isEqualTo(1);
+        assertThat(records.iterator().next().headers().lastHeader("source").value()).isNull();
+    }
+
+    @Test
+    void producesTransactionalMessageBatches() throws Exception {
+        restMockMvc
+            .perform(
+                post("/api/producer-kafka/publish/topic-produce-transactional/batch?transactional=true")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .content("[{\"key\":\"k1\",\"value\":\"value-1\"},{\"value\":\"value-2\"}]")
+            )
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.length()").value(2))
+            .andExpect(jsonPath("$[1].offset").isNumber());
+
+        Map<String, Object> consumerProps = new HashMap<>(getConsumerProps("group-produce-transactional"));
+        consumerProps.put("isolation.level", "read_committed");
+        KafkaConsumer<String, String> consumer = new KafkaConsumer<>(consumerProps);
+        consumer.subscribe(Collections.singletonList("topic-produce-transactional"));
+        ConsumerRecords<String, String> records = consumer.poll(Duration.ofSeconds(1));
+
+        assertThat(records.count()).isEqualTo(2);
+    }
+
+    @Test
+    void producesMessagesFromStream() throws Exception {
+        restMockMvc
+            .perform(
+                post("/api/producer-kafka/publish/topic-produce-stream/stream")
+                    .contentType(MediaType.APPLICATION_NDJSON)
+                    .content("{\"id\":1}\n{\"id\":2}\n\n{\"id\":3}\n")
+            )
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.count").value(3))
+            .andExpect(jsonPath("$.spooled").value(0))
+            .andExpect(jsonPath("$.failed").value(0));
+
+        Map<String, Object> consumerProps = new HashMap<>(getConsumerProps("group-produce-stream"));
+        KafkaConsumer<String, String> consumer = new KafkaConsumer<>(consumerProps);
+        consumer.subscribe(Collections.singletonList("topic-produce-stream"));
+        ConsumerRecords<String, String> records = consumer.poll(Duration.ofSeconds(1));
+
+        assertThat(records.count()).isEqualTo(3);
+    }
+
     @Test
     void consumesMessages() throws Exception {
         Map<String, Object> producerProps = new HashMap<>(getProducerProps());
@@ -103,6 +269,145 @@ class ProducerKafkaResourceIT {
         fail("Expected content data:value-consume not received");
     }
 
+    @Test
+    void consumesMessagesInJsonFrames() throws Exception {
+        Map<String, Object> producerProps = new HashMap<>(getProducerProps());
+        KafkaProducer<String, String> producer = new KafkaProducer<>(producerProps);
+
+        producer.send(new ProducerRecord<>("topic-consume-json", "{\"id\":1}"));
+
+        MvcResult mvcResult = restMockMvc
+            .perform(get("/api/producer-kafka/consume?topic=topic-consume-json&frame=json"))
+            .andExpect(status().isOk())
+            .andExpect(request().asyncStarted())
+            .andReturn();
+
+        for (int i = 0; i < 100; i++) {
+            Thread.sleep(100);
+            String content = mvcResult.getResponse().getContentAsString();
+            if (content.contains("data:[{\"id\":1}]")) {
+                return;
+            }
+        }
+        fail("Expected content data:[{\"id\":1}] not received");
+    }
+
+    @Test
+    void consumesFilteredAndProjectedMessages() throws Exception {
+        Map<String, Object> producerProps = new HashMap<>(getProducerProps());
+        KafkaProducer<String, String> producer = new KafkaProducer<>(producerProps);
+
+        MvcResult mvcResult = restMockMvc
+            .perform(get("/api/producer-kafka/consume?topic=topic-consume-filter&keyPrefix=order-&field=/customer/name"))
+            .andExpect(status().isOk())
+            .andExpect(request().asyncStarted())
+            .andReturn();
+
+        producer.send(new ProducerRecord<>("topic-consume-filter", "invoice-1", "{\"customer\":{\"name\":\"Bob\"}}"));
+        producer.send(new ProducerRecord<>("topic-consume-filter", "order-1", "{\"id\":1,\"customer\":{\"name\":\"Ann\"}}"));
+
+        for (int i = 0; i < 100; i++) {
+            Thread.sleep(100);
+            String content = mvcResult.getResponse().getContentAsString();
+            if (content.contains("data:{\"customer/name\":\"Ann\"}")) {
+                assertThat(content).doesNotContain("Bob");
+                return;
+            }
+        }
+        fail("Expected content data:{\"customer/name\":\"Ann\"} not received");
+    }
+
+    @Test
+    void resumesConsumptionAfterLastEventId() throws Exception {
+        Map<String, Object> producerProps = new HashMap<>(getProducerProps());
+        KafkaProducer<String, String> producer = new KafkaProducer<>(producerProps);
+        for (int i = 0; i < 3; i++) {
+            producer.send(new ProducerRecord<>("topic-resume", 0, null, "value-resume-" + i)).get();
+        }
+
+        MvcResult mvcResult = restMockMvc
+            .perform(get("/api/producer-kafka/consume?topic=topic-resume").header("Last-Event-ID", "topic-resume/0/0"))
+            .andExpect(status().isOk())
+            .andExpect(request().asyncStarted())
+            .andReturn();
+
+        for (int i = 0; i < 100; i++) {
+            Thread.sleep(100);
+            String content = mvcResult.getResponse().getContentAsString();
+            if (content.contains("data:value-resume-2")) {
+                assertThat(content).doesNotContain("data:value-resume-0");
+                assertThat(content).contains("data:value-resume-1").contains("id:topic-resume/0/2");
+                return;
+            }
+        }
+        fail("Expected content data:value-resume-2 not received");
+    }
+
+    @Test
+    void sharesConsumerBetweenSubscribers() throws Exception {
+        Map<String, Object> producerProps = new HashMap<>(getProducerProps());
+        KafkaProducer<String, String> producer = new KafkaProducer<>(producerProps);
+
+        MvcResult first = restMockMvc.perform(get("/api/producer-kafka/consume?topic=topic-shared")).andReturn();
+        MvcResult second = restMockMvc.perform(get("/api/producer-kafka/consume?topic=topic-shared")).andReturn();
+        assertThat(meterRegistry.get(KafkaConsumerHub.FEEDS_METER_NAME).gauge().value()).isEqualTo(1);
+        assertThat(meterRegistry.get(KafkaConsumerHub.SUBSCRIPTIONS_METER_NAME).gauge().value()).isEqualTo(2);
+
+        producer.send(new ProducerRecord<>("topic-shared", "value-shared"));
+
+        for (int i = 0; i < 100; i++) {
+            Thread.sleep(100);
+            if (
+                first.getResponse().getContentAsString().contains("data:value-shared") &&
+                second.getResponse().getContentAsString().contains("data:value-shared")
+            ) {
+                return;
+            }
+        }
+        fail("Expected content data:value-shared not received by both subscribers");
+    }
+
+    @Test
+    void readsPagesOfOffsetRange() throws Exception {
+        Map<String, Object> producerProps = new HashMap<>(getProducerProps());
+        KafkaProducer<String, String> producer = new KafkaProducer<>(producerProps);
+        for (int i = 0; i < 5; i++) {
+            producer.send(new ProducerRecord<>("topic-read", 0, "key-" + i, "value-read-" + i)).get();
+        }
+
+        restMockMvc
+            .perform(get("/api/producer-kafka/read?topic=topic-read&fromOffset=1&toOffset=4&limit=2"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.records.length()").value(2))
+            .andExpect(jsonPath("$.records[0].offset").value(1))
+            .andExpect(jsonPath("$.records[0].key").value("key-1"))
+            .andExpect(jsonPath("$.records[1].value").value("value-read-2"))
+            .andExpect(jsonPath("$.cursor").value("topic-read/0/3"));
+
+        restMockMvc
+            .perform(get("/api/producer-kafka/read?topic=topic-read&fromOffset=1&toOffset=4&limit=2&cursor=topic-read/0/3"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.records.length()").value(1))
+            .andExpect(jsonPath("$.records[0].value").value("value-read-3"))
+            .andExpect(jsonPath("$.cursor").doesNotExist());
+    }
+
+    @Test
+    void readsTimestampRange() throws Exception {
+        Map<String, Object> producerProps = new HashMap<>(getProducerProps());
+        KafkaProducer<String, String> producer = new KafkaProducer<>(producerProps);
+        producer.send(new ProducerRecord<>("topic-read-time", 0, 1_000L, null, "value-early")).get();
+        producer.send(new ProducerRecord<>("topic-read-time", 0, 2_000L, null, "value-in-range")).get();
+        producer.send(new ProducerRecord<>("topic-read-time", 0, 3_000L, null, "value-late")).get();
+
+        restMockMvc
+            .perform(get("/api/producer-kafka/read?topic=topic-read-time&from=1970-01-01T00:00:01.500Z&to=1970-01-01T00:00:03Z"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.records.length()").value(1))
+            .andExpect(jsonPath("$.records[0].value").value("value-in-range"))
+            .andExpect(jsonPath("$.cursor").doesNotExist());
+    }
+
     private Map<String, String> getProducerProps() {
         Map<String, String> producerProps = new HashMap<>();
         producerProps.put("key.serializer", "org.apache.kafka.common.serialization.StringSerializer");
@@ -1,21 +1,28 @@
 package morozov.vu.web.rest;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.hasItem;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
+import java.time.Instant;
 import java.util.List;
 import java.util.Random;
 import java.util.concurrent.atomic.AtomicLong;
 import javax.persistence.EntityManager;
 import morozov.vu.IntegrationTest;
 import morozov.vu.domain.ShopOne;
+import morozov.vu.domain.ShopOneOutboxEvent;
+import morozov.vu.repository.ShopOneOutboxRepository;
 import morozov.vu.repository.ShopOneRepository;
+import morozov.vu.service.ShopOneEventPublisher;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.security.test.context.support.WithMockUser;
 import org.springframework.test.web.servlet.MockMvc;
@@ -50,6 +57,9 @@ class ShopOneResourceIT {
     @Autowired
     private ShopOneRepository shopOneRepository;
 
+    @Autowired
+    private ShopOneOutboxRepository shopOneOutboxRepository;
+
     @Autowired
     private EntityManager em;
 
@@ -89,6 +99,7 @@ class ShopOneResourceIT {
     @Transactional
     void createShopOne() throws Exception {
         int databaseSizeBeforeCreate = shopOneRepository.findAll().size();
+        int outboxSizeBeforeCreate = shopOneOutboxRepository.findAll().size();
         // Create the ShopOne
         restShopOneMockMvc
             .perform(post(ENTITY_API_URL).contentType(MediaType.APPLICATION_JSON).content(TestUtil.convertObjectToJsonBytes(shopOne)))
@@ -102,6 +113,16 @@ class ShopOneResourceIT {
         assertThat(testShopOne.getOwner()).isEqualTo(DEFAULT_OWNER);
         assertThat(testShopOne.getCategory()).isEqualTo(DEFAULT_CATEGORY);
         assertThat(testShopOne.getEmail()).isEqualTo(DEFAULT_EMAIL);
+
+        // Validate the events in the outbox
+        List<ShopOneOutboxEvent> outbox = shopOneOutboxRepository.findAll();
+        assertThat(outbox).hasSize(outboxSizeBeforeCreate + 2);
+        assertThat(outbox.subList(outbox.size() - 2, outbox.size()))
+            .extracting(ShopOneOutboxEvent::getTopic)
+            .containsExactly(ShopOneEventPublisher.TOPIC, ShopOneEventPublisher.CHANGES_TOPIC);
+        ShopOneOutboxEvent event = outbox.get(outbox.size() - 1);
+        assertThat(event.getRecordKey()).isEqualTo(testShopOne.getId());
+        assertThat(event.getPayload()).contains(DEFAULT_SHOP_NAME);
     }
 
     @Test
@@ -111,6 +132,7 @@ class ShopOneResourceIT {
         shopOne.setId(1L);
 
         int databaseSizeBeforeCreate = shopOneRepository.findAll().size();
+        int outboxSizeBeforeCreate = shopOneOutboxRepository.findAll().size();
 
         // An entity with an existing ID cannot be created, so this API call must fail
         restShopOneMockMvc
@@ -120,6 +142,48 @@ class ShopOneResourceIT {
         // Validate the ShopOne in the database
         List<ShopOne> shopOneList = shopOneRepository.findAll();
         assertThat(shopOneList).hasSize(databaseSizeBeforeCreate);
+        assertThat(shopOneOutboxRepository.findAll()).hasSize(outboxSizeBeforeCreate);
+    }
+
+    @Test
+    @Transactional
+    void createShopOnesInBulk() throws Exception {
+        int databaseSizeBeforeCreate = shopOneRepository.findAll().size();
+        int outboxSizeBeforeCreate = shopOneOutboxRepository.findAll().size();
+        List<ShopOne> shopOnes = List.of(createEntity(em), createEntity(em), createUpdatedEntity(em));
+
+        // Create the ShopOnes
+        restShopOneMockMvc
+            .perform(
+                post(ENTITY_API_URL + "/bulk").contentType(MediaType.APPLICATION_JSON).content(TestUtil.convertObjectToJsonBytes(shopOnes))
+            )
+            .andExpect(status().isCreated())
+            .andExpect(jsonPath("$.length()").value(3));
+
+        // Validate the ShopOnes in the database and their events in the outbox
+        List<ShopOne> shopOneList = shopOneRepository.findAll();
+        assertThat(shopOneList).hasSize(databaseSizeBeforeCreate + 3);
+        assertThat(shopOneList).extracting(ShopOne::getShopName).contains(DEFAULT_SHOP_NAME, UPDATED_SHOP_NAME);
+        assertThat(shopOneOutboxRepository.findAll()).hasSize(outboxSizeBeforeCreate + 6);
+    }
+
+    @Test
+    @Transactional
+    void createShopOnesInBulkWithExistingId() throws Exception {
+        int databaseSizeBeforeCreate = shopOneRepository.findAll().size();
+        shopOne.setId(1L);
+
+        // An entity with an existing ID cannot be created, so this API call must fail
+        restShopOneMockMvc
+            .perform(
+                post(ENTITY_API_URL + "/bulk")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .content(TestUtil.convertObjectToJsonBytes(List.of(createEntity(em), shopOne)))
+            )
+            .andExpect(status().isBadRequest());
+
+        // Validate the database is unchanged
+        assertThat(shopOneRepository.findAll()).hasSize(databaseSizeBeforeCreate);
     }
 
     @Test
@@ -130,7 +194,7 @@ class ShopOneResourceIT {
 
         // Get all the shopOneList
         restShopOneMockMvc
-            .perform(get(ENTITY_API_URL + "?sort=id,desc"))
+            .perform(get(ENTITY_API_URL + "?after={after}", shopOne.getId() - 1))
             .andExpect(status().isOk())
             .andExpect(content().contentType(MediaType.APPLICATION_JSON_VALUE))
             .andExpect(jsonPath("$.[*].id").value(hasItem(shopOne.getId().intValue())))
@@ -140,6 +204,36 @@ class ShopOneResourceIT {
             .andExpect(jsonPath("$.[*].email").value(hasItem(DEFAULT_EMAIL)));
     }
 
+    @Test
+    @Transactional
+    void getAllShopOnesPageByPage() throws Exception {
+        // Initialize the database
+        ShopOne first = shopOneRepository.saveAndFlush(createEntity(em));
+        ShopOne second = shopOneRepository.saveAndFlush(createEntity(em));
+        ShopOne third = shopOneRepository.saveAndFlush(createEntity(em));
+
+        // Get the first page, linking to the next one
+        restShopOneMockMvc
+            .perform(get(ENTITY_API_URL + "?after={after}&size=2", first.getId() - 1))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.[*].id").value(contains(first.getId().intValue(), second.getId().intValue())))
+            .andExpect(header().string(HttpHeaders.LINK, containsString("after=" + second.getId())));
+
+        // Get the last page
+        restShopOneMockMvc
+            .perform(get(ENTITY_API_URL + "?after={after}&size=2", second.getId()))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.[0].id").value(third.getId().intValue()))
+            .andExpect(header().doesNotExist(HttpHeaders.LINK));
+    }
+
+    @Test
+    @Transactional
+    void getAllShopOnesWithInvalidSize() throws Exception {
+        restShopOneMockMvc.perform(get(ENTITY_API_URL + "?size=0")).andExpect(status().isBadRequest());
+        restShopOneMockMvc.perform(get(ENTITY_API_URL + "?size=1001")).andExpect(status().isBadRequest());
+    }
+
     @Test
     @Transactional
     void getShopOne() throws Exception {
@@ -195,6 +289,12 @@ class ShopOneResourceIT {
         assertThat(testShopOne.getOwner()).isEqualTo(UPDATED_OWNER);
         assertThat(testShopOne.getCategory()).isEqualTo(UPDATED_CATEGORY);
         assertThat(testShopOne.getEmail()).isEqualTo(UPDATED_EMAIL);
+
+        // Validate the change event in the outbox
+        ShopOneOutboxEvent event = lastOutboxEvent();
+        assertThat(event.getTopic()).isEqualTo(ShopOneEventPublisher.CHANGES_TOPIC);
+        assertThat(event.getRecordKey()).isEqualTo(shopOne.getId());
+        assertThat(event.getPayload()).contains(UPDATED_SHOP_NAME);
     }
 
     @Test
@@ -373,6 +473,68 @@ class ShopOneResourceIT {
         assertThat(shopOneList).hasSize(databaseSizeBeforeUpdate);
     }
 
+    @Test
+    @Transactional
+    void updateShopOneReplacesPendingChangeEvent() throws Exception {
+        // Initialize the database
+        shopOneRepository.saveAndFlush(shopOne);
+
+        for (String shopName : new String[] { DEFAULT_SHOP_NAME, UPDATED_SHOP_NAME }) {
+            ShopOne updatedShopOne = shopOneRepository.findById(shopOne.getId()).get();
+            em.detach(updatedShopOne);
+            updatedShopOne.shopName(shopName);
+
+            restShopOneMockMvc
+                .perform(
+                    put(ENTITY_API_URL_ID, updatedShopOne.getId())
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(TestUtil.convertObjectToJsonBytes(updatedShopOne))
+                )
+                .andExpect(status().isOk());
+        }
+
+        // Validate that only the latest change is waiting in the outbox
+        assertThat(shopOneOutboxRepository.findAll())
+            .filteredOn(event -> shopOne.getId().equals(event.getRecordKey()))
+            .singleElement()
+            .satisfies(event -> assertThat(event.getPayload()).contains(UPDATED_SHOP_NAME));
+    }
+
+    @Test
+    @Transactional
+    void updateShopOneKeepsChangeEventBeingRelayed() throws Exception {
+        // Initialize the database, with a change event claimed by the relay
+        shopOneRepository.saveAndFlush(shopOne);
+        ShopOneOutboxEvent claimed = shopOneOutboxRepository.saveAndFlush(
+            new ShopOneOutboxEvent()
+                .topic(ShopOneEventPublisher.CHANGES_TOPIC)
+                .recordKey(shopOne.getId())
+                .payload("{}")
+                .createdDate(Instant.now())
+                .claimedUntil(Instant.now().plusSeconds(60))
+        );
+
+        // Update the shopOne
+        ShopOne updatedShopOne = shopOneRepository.findById(shopOne.getId()).get();
+        em.detach(updatedShopOne);
+        updatedShopOne.shopName(UPDATED_SHOP_NAME);
+
+        restShopOneMockMvc
+            .perform(
+                put(ENTITY_API_URL_ID, updatedShopOne.getId())
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .content(TestUtil.convertObjectToJsonBytes(updatedShopOne))
+            )
+            .andExpect(status().isOk());
+
+        // Validate that the claimed event is left to the relay, and the change waits after it
+        assertThat(shopOneOutboxRepository.findAll())
+            .filteredOn(event -> shopOne.getId().equals(event.getRecordKey()))
+            .extracting(ShopOneOutboxEvent::getId)
+            .hasSize(2)
+            .contains(claimed.getId());
+    }
+
     @Test
     @Transactional
     void deleteShopOne() throws Exception {
@@ -389,5 +551,17 @@ class ShopOneResourceIT {
         // Validate the database contains one less item
         List<ShopOne> shopOneList = shopOneRepository.findAll();
         assertThat(shopOneList).hasSize(databaseSizeBeforeDelete - 1);
+
+        // Validate the tombstone in the outbox
+        ShopOneOutboxEvent event = lastOutboxEvent();
+        assertThat(event.getTopic()).isEqualTo(ShopOneEventPublisher.CHANGES_TOPIC);
+        assertThat(event.getRecordKey()).isEqualTo(shopOne.getId());
+        assertThat(event.getPayload()).isNull();
+    }
+
+    private ShopOneOutboxEvent lastOutboxEvent() {
+        List<ShopOneOutboxEvent> outbox = shopOneOutboxRepository.findAll();
+        assertThat(outbox).isNotEmpty();
+        return outbox.get(outbox.size() - 1);
     }
 }
@@ -0,0 +1,138 @@
+package morozov.vu.web.websocket;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.InflaterInputStream;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.record.TimestampType;
+import org.junit.jupiter.api.Test;
+
+class RecordFrameEncoderTest {
+
+    private static final List<String> TOPICS = Arrays.asList("first", "second");
+
+    @Test
+    void encodesRecords() throws IOException {
+        RecordHeaders headers = new RecordHeaders();
+        headers.add("type", "order".getBytes(StandardCharsets.UTF_8));
+        ConsumerRecord<byte[], byte[]> record = record("second", 3, 42L, bytes("key"), bytes("value"), headers);
+        ConsumerRecord<byte[], byte[]> tombstone = record("first", 0, 7L, null, null, new RecordHeaders());
+
+        DataInputStream in = body(new RecordFrameEncoder(TOPICS, -1).encode(Arrays.asList(record, tombstone)), false);
+
+        assertThat(in.readInt()).isEqualTo(2);
+        assertThat(in.readUnsignedShort()).isEqualTo(1);
+        assertThat(in.readInt()).isEqualTo(3);
+        assertThat(in.readLong()).isEqualTo(42L);
+        assertThat(in.readLong()).isEqualTo(1000L);
+        assertThat(readBytes(in)).isEqualTo(bytes("key"));
+        assertThat(readBytes(in)).isEqualTo(bytes("value"));
+        assertThat(in.readUnsignedShort()).isEqualTo(1);
+        byte[] name = new byte[in.readUnsignedShort()];
+        in.readFully(name);
+        assertThat(name).isEqualTo(bytes("type"));
+        assertThat(readBytes(in)).isEqualTo(bytes("order"));
+
+        assertThat(in.readUnsignedShort()).isZero();
+        assertThat(in.readInt()).isZero();
+        assertThat(in.readLong()).isEqualTo(7L);
+        assertThat(in.readLong()).isEqualTo(1000L);
+        assertThat(readBytes(in)).isNull();
+        assertThat(readBytes(in)).isNull();
+        assertThat(in.readUnsignedShort()).isZero();
+        assertThat(in.read()).isEqualTo(-1);
+    }
+
+    @Test
+    void deflatesFramesAboveThreshold() throws IOException {
+        byte[] value = new byte[10_000];
+        Arrays.fill(value, (byte) 'a');
+        RecordFrameEncoder encoder = new RecordFrameEncoder(TOPICS, 1024);
+
+        for (int i = 0; i < 2; i++) {
+            ByteBuffer frame = encoder.encode(Collections.singletonList(record("first", 0, i, null, value, new RecordHeaders())));
+
+            assertThat(frame.remaining()).isLessThan(value.length);
+            DataInputStream in = body(frame, true);
+            assertThat(in.readInt()).isEqualTo(1);
+            in.skipBytes(2 + 4);
+            assertThat(in.readLong()).isEqualTo(i);
+            in.skipBytes(8);
+            assertThat(readBytes(in)).isNull();
+            assertThat(readBytes(in)).isEqualTo(value);
+        }
+    }
+
+    @Test
+    void doesNotDeflateFramesBelowThreshold() throws IOException {
+        ByteBuffer frame = new RecordFrameEncoder(TOPICS, 1024)
+            .encode(Collections.singletonList(record("first", 0, 0L, null, bytes("small"), new RecordHeaders())));
+
+        assertThat(body(frame, false).readInt()).isEqualTo(1);
+    }
+
+    @Test
+    void failsOnceClosed() {
+        RecordFrameEncoder encoder = new RecordFrameEncoder(TOPICS, 1024);
+        encoder.close();
+        encoder.close();
+
+        assertThatThrownBy(() -> encoder.encode(Collections.emptyList())).isInstanceOf(IOException.class);
+    }
+
+    private static DataInputStream body(ByteBuffer frame, boolean deflated) {
+        byte[] bytes = new byte[frame.remaining()];
+        frame.get(bytes);
+        assertThat(bytes[0] & RecordFrameEncoder.FLAG_DEFLATED).isEqualTo(deflated ? RecordFrameEncoder.FLAG_DEFLATED : 0);
+        InputStream body = new ByteArrayInputStream(bytes, 1, bytes.length - 1);
+        return new DataInputStream(deflated ? new InflaterInputStream(body) : body);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static ConsumerRecord<byte[], byte[]> record(
+        String topic,
+        int partition,
+        long offset,
+        byte[] key,
+        byte[] value,
+        RecordHeaders headers
+    ) {
+        return new ConsumerRecord<>(
+            topic,
+            partition,
+            offset,
+            1000L,
+            TimestampType.CREATE_TIME,
+            -1L,
+            key != null ? key.length : -1,
+            value != null ? value.length : -1,
+            key,
+            value,
+            headers
+        );
+    }
+}